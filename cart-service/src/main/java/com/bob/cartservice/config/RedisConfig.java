@@ -1,12 +1,17 @@
 package com.bob.cartservice.config;
 
 import com.bob.cartservice.model.Cart;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 public class RedisConfig {
@@ -16,14 +21,40 @@ public class RedisConfig {
         RedisTemplate<String, Cart> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
 
-        // Use Jackson to serialize Cart objects to JSON
+        // Carts live in a hash (cart:{userId} -> productId -> compact item), so hash fields are plain strings.
+        // The JSON value serializer is only used to read legacy whole-document carts written before the hash layout.
         Jackson2JsonRedisSerializer<Cart> serializer = new Jackson2JsonRedisSerializer<>(Cart.class);
 
         template.setKeySerializer(new StringRedisSerializer());
         template.setValueSerializer(serializer);
         template.setHashKeySerializer(new StringRedisSerializer());
-        template.setHashValueSerializer(serializer);
+        template.setHashValueSerializer(new StringRedisSerializer());
 
         return template;
     }
-}
\ No newline at end of file
+
+    // Receives cart cache invalidations published by other replicas, and keyspace notifications
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       ThreadPoolTaskExecutor redisListenerExecutor) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(redisListenerExecutor);
+        return container;
+    }
+
+    // The container's default executor starts a thread per message; a mass expiry must not do that.
+    // Listeners only do quick work here (slow work goes to their own queues), so a full queue runs the
+    // message on the receiving thread instead of dropping it.
+    @Bean
+    public ThreadPoolTaskExecutor redisListenerExecutor(@Value("${cart.redis.listener.threads:2}") int threads,
+                                                        @Value("${cart.redis.listener.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("redis-listener-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+}
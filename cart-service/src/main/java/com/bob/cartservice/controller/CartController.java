@@ -1,6 +1,7 @@
 package com.bob.cartservice.controller;
 
 import com.bob.cartservice.dto.AddToCartRequestDTO;
+import com.bob.cartservice.dto.BulkAddToCartRequestDTO;
 import com.bob.cartservice.dto.CartResponseDTO;
 import com.bob.cartservice.exception.CartValidationException;
 import com.bob.cartservice.service.CartService;
@@ -28,6 +29,14 @@ public class CartController {
         return ResponseEntity.ok(cartService.addItemToCart(userId, request));
     }
 
+    // e.g. restoring a wishlist: all products resolved in one lookup, all lines added in one cart commit
+    @PostMapping("/{userId}/add-bulk")
+    public ResponseEntity<CartResponseDTO> addAllToCart(
+            @PathVariable String userId,
+            @RequestBody BulkAddToCartRequestDTO request) {
+        return ResponseEntity.ok(cartService.addItemsToCart(userId, request.getItems()));
+    }
+
     @GetMapping("/{userId}")
     public ResponseEntity<CartResponseDTO> getCart(@PathVariable String userId) {
         return ResponseEntity.ok(cartService.getCart(userId));
@@ -0,0 +1,11 @@
+package com.bob.cartservice.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class BulkAddToCartRequestDTO {
+    private List<AddToCartRequestDTO> items = new ArrayList<>();
+}
@@ -13,5 +13,7 @@ public class CartResponseDTO {
     private String userId;
     private List<CartItem> items;
     private BigDecimal totalAmount;
+    private String currency;
     private int totalQuantity;
+    private long version;
 }
\ No newline at end of file
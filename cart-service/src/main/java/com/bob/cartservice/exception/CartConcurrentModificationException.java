@@ -0,0 +1,7 @@
+package com.bob.cartservice.exception;
+
+public class CartConcurrentModificationException extends RuntimeException {
+    public CartConcurrentModificationException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,7 @@
 package com.bob.cartservice.exception;
 
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
@@ -41,6 +43,32 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(404).body(response);
     }
 
+    // Cart kept changing under us (409)
+    @ExceptionHandler(CartConcurrentModificationException.class)
+    public ResponseEntity<Map<String, String>> handleConcurrentModification(CartConcurrentModificationException ex) {
+        log.warn("Conflict: {}", ex.getMessage());
+
+        Map<String, String> response = new HashMap<>();
+        response.put("message", ex.getMessage());
+
+        return ResponseEntity.status(409).body(response);
+    }
+
+    // Product service too slow or unreachable (503)
+    @ExceptionHandler(StatusRuntimeException.class)
+    public ResponseEntity<Map<String, String>> handleProductServiceError(StatusRuntimeException ex) {
+        Status.Code code = ex.getStatus().getCode();
+        if (code != Status.Code.DEADLINE_EXCEEDED && code != Status.Code.UNAVAILABLE) {
+            return handleGenericException(ex);
+        }
+        log.warn("Product service unavailable: {}", ex.getStatus());
+
+        Map<String, String> response = new HashMap<>();
+        response.put("message", "Product service unavailable, please retry");
+
+        return ResponseEntity.status(503).body(response);
+    }
+
     // Generic Errors (500)
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, String>> handleGenericException(Exception ex) {
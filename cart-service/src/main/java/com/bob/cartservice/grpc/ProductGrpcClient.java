@@ -1,29 +1,404 @@
 package com.bob.cartservice.grpc;
 
+import com.bob.cartservice.exception.ResourceNotFoundException;
 import com.bob.product.proto.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+/**
+ * Client for product-service. The async methods return immediately, so callers can compose several
+ * lookups without holding a thread per call; the blocking methods wait on them for existing callers.
+ * <p>
+ * Every call carries a per-method deadline. Idempotent reads (getProduct, listProducts) can be hedged:
+ * if the first attempt has not answered within the configured latency percentile, a second attempt
+ * is sent and whichever answers first wins.
+ * <p>
+ * Concurrent getProduct calls for the same product share one in-flight RPC (single flight), and results are
+ * kept for a short TTL; {@link #invalidate} drops a product when an update or deletion event arrives.
+ * Lookups that still need an RPC are micro-batched: those arriving within a short window are sent
+ * as one ListProducts call.
+ */
 @Service
 public class ProductGrpcClient {
 
+    private static final String GET_PRODUCT = "getProduct";
+    private static final String LIST_PRODUCTS = "listProducts";
+    private static final String VALIDATE_CART_ITEMS = "validateCartItems";
+
     // "product-service" must match the name configured in application.properties or service discovery
     @GrpcClient("product-service")
-    private ProductServiceGrpc.ProductServiceBlockingStub productServiceBlockingStub;
+    private ProductServiceGrpc.ProductServiceFutureStub productServiceFutureStub;
 
-    public Product getProduct(String productId) {
-        GetProductRequest request = GetProductRequest.newBuilder()
-                .setProductId(productId)
+    private final MeterRegistry meterRegistry;
+    private final Counter hedgedCalls;
+    private final Counter issuedLookups;
+    private final Counter coalescedLookups;
+    private final Counter cachedLookups;
+    // Hedge timers and the product cache sweep
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("product-grpc-scheduler").daemon().factory());
+
+    private record CachedProduct(Product product, long expiresAt) {
+    }
+
+    private final Map<String, CompletableFuture<Product>> inFlightLookups = new ConcurrentHashMap<>();
+    private final Map<String, CachedProduct> productCache = new ConcurrentHashMap<>();
+
+    // deadline: when the getProduct call waiting on this lookup gives up
+    private record PendingLookup(String productId, CompletableFuture<Product> result, Deadline deadline) {
+    }
+
+    // Lookups waiting for the current micro-batch to be sent, guarded by batchLock
+    private final Object batchLock = new Object();
+    private List<PendingLookup> pendingLookups = new ArrayList<>();
+    private ScheduledFuture<?> batchTimer;
+
+    private final Counter batchCalls;
+    private final DistributionSummary batchSizes;
+
+    @Value("${product.grpc.deadline.get-product:500ms}")
+    private Duration getProductDeadline;
+
+    @Value("${product.grpc.deadline.list-products:1s}")
+    private Duration listProductsDeadline;
+
+    @Value("${product.grpc.deadline.validate-cart-items:1s}")
+    private Duration validateCartItemsDeadline;
+
+    @Value("${product.grpc.hedging.enabled:true}")
+    private boolean hedgingEnabled;
+
+    // Latency percentile of successful calls after which a hedged attempt is sent
+    @Value("${product.grpc.hedging.percentile:0.95}")
+    private double hedgePercentile;
+
+    // Floor for the hedge delay, also used until enough latencies have been recorded
+    @Value("${product.grpc.hedging.min-delay:50ms}")
+    private Duration minHedgeDelay;
+
+    // How long a getProduct result is reused; 0 keeps only the single-flight sharing
+    @Value("${product.grpc.cache.ttl:2s}")
+    private Duration productCacheTtl;
+
+    @Value("${product.grpc.batching.enabled:true}")
+    private boolean batchingEnabled;
+
+    // How long the first lookup of a batch waits for others to join it
+    @Value("${product.grpc.batching.window:2ms}")
+    private Duration batchWindow;
+
+    // A batch this large is sent without waiting for the window to end
+    @Value("${product.grpc.batching.max-size:100}")
+    private int maxBatchSize;
+
+    public ProductGrpcClient(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.hedgedCalls = Counter.builder("product.grpc.client.hedged")
+                .description("Second attempts sent for slow product-service reads")
+                .register(meterRegistry);
+        this.issuedLookups = lookups(meterRegistry, "issued");
+        this.coalescedLookups = lookups(meterRegistry, "coalesced");
+        this.cachedLookups = lookups(meterRegistry, "cached");
+        this.batchCalls = Counter.builder("product.grpc.client.batches")
+                .description("ListProducts calls sent for micro-batched getProduct lookups")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("product.grpc.client.batch.size")
+                .description("Product lookups merged into one ListProducts call")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("product.grpc.client.lookups")
+                .description("getProduct lookups: RPCs issued, joined to an in-flight RPC, or served from the cache")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void scheduleCacheSweep() {
+        if (!productCacheTtl.isZero()) {
+            long period = productCacheTtl.toMillis();
+            scheduler.scheduleAtFixedRate(() -> {
+                long now = System.nanoTime();
+                productCache.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // --- Async API ---
+
+    public CompletableFuture<Product> getProductAsync(String productId) {
+        CachedProduct cached = productCache.get(productId);
+        if (cached != null && cached.expiresAt() - System.nanoTime() > 0) {
+            cachedLookups.increment();
+            return CompletableFuture.completedFuture(cached.product());
+        }
+
+        CompletableFuture<Product> lookup = new CompletableFuture<>();
+        CompletableFuture<Product> inFlight = inFlightLookups.putIfAbsent(productId, lookup);
+        if (inFlight != null) {
+            coalescedLookups.increment();
+            // A copy, so a caller cancelling its future does not cancel it for the others
+            return inFlight.copy();
+        }
+
+        issuedLookups.increment();
+        fetchProduct(productId).whenComplete((product, error) -> {
+            // Not in flight any more means it was invalidated meanwhile: the result may predate the event
+            if (inFlightLookups.remove(productId, lookup) && error == null && !productCacheTtl.isZero()) {
+                productCache.put(productId, new CachedProduct(product, System.nanoTime() + productCacheTtl.toNanos()));
+            }
+            if (error != null) {
+                lookup.completeExceptionally(error);
+            } else {
+                lookup.complete(product);
+            }
+        });
+        return lookup.copy();
+    }
+
+    /**
+     * Drops the cached result and detaches any in-flight lookup of the product, so the next call reads it again.
+     */
+    public void invalidate(String productId) {
+        productCache.remove(productId);
+        inFlightLookups.remove(productId);
+    }
+
+    public CompletableFuture<ListProductsResponse> listProductsAsync(List<String> productIds) {
+        ListProductsRequest request = ListProductsRequest.newBuilder()
+                .addAllProductIds(productIds)
                 .build();
-        return productServiceBlockingStub.getProductById(request);
+        return call(LIST_PRODUCTS, hedgingEnabled, () -> productServiceFutureStub
+                .withDeadlineAfter(listProductsDeadline.toMillis(), TimeUnit.MILLISECONDS)
+                .listProducts(request));
     }
 
-    public ValidateCartItemsResponse validateCartItems(List<CartItemRequest> items) {
+    public CompletableFuture<ValidateCartItemsResponse> validateCartItemsAsync(List<CartItemRequest> items) {
         ValidateCartItemsRequest request = ValidateCartItemsRequest.newBuilder()
                 .addAllItems(items)
                 .build();
-        return productServiceBlockingStub.validateCartItems(request);
+        // Not hedged: validation is the authoritative pre-checkout check and should reach the server once
+        return call(VALIDATE_CART_ITEMS, false, () -> productServiceFutureStub
+                .withDeadlineAfter(validateCartItemsDeadline.toMillis(), TimeUnit.MILLISECONDS)
+                .validateCartItems(request));
+    }
+
+    // --- Blocking API ---
+
+    public Product getProduct(String productId) {
+        return await(getProductAsync(productId));
+    }
+
+    public ListProductsResponse listProducts(List<String> productIds) {
+        return await(listProductsAsync(productIds));
+    }
+
+    public ValidateCartItemsResponse validateCartItems(List<CartItemRequest> items) {
+        return await(validateCartItemsAsync(items));
+    }
+
+    // --- Helper Methods ---
+
+    private CompletableFuture<Product> fetchProduct(String productId) {
+        // product-service rejects a ListProducts call with any malformed ID, so those are not batched with others
+        if (!batchingEnabled || !isUuid(productId)) {
+            return getProductByIdAsync(productId);
+        }
+
+        CompletableFuture<Product> result = new CompletableFuture<>();
+        List<PendingLookup> fullBatch = null;
+        synchronized (batchLock) {
+            pendingLookups.add(new PendingLookup(productId, result,
+                    Deadline.after(getProductDeadline.toNanos(), TimeUnit.NANOSECONDS)));
+            if (pendingLookups.size() >= maxBatchSize) {
+                fullBatch = takePendingLookups();
+            } else if (pendingLookups.size() == 1) {
+                batchTimer = scheduler.schedule(this::sendPendingLookups, batchWindow.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (fullBatch != null) {
+            sendBatch(fullBatch);
+        }
+        return result;
+    }
+
+    private void sendPendingLookups() {
+        List<PendingLookup> batch;
+        synchronized (batchLock) {
+            batch = takePendingLookups();
+        }
+        if (!batch.isEmpty()) {
+            sendBatch(batch);
+        }
+    }
+
+    // Caller holds batchLock
+    private List<PendingLookup> takePendingLookups() {
+        List<PendingLookup> batch = pendingLookups;
+        pendingLookups = new ArrayList<>();
+        if (batchTimer != null) {
+            batchTimer.cancel(false);
+            batchTimer = null;
+        }
+        return batch;
+    }
+
+    private void sendBatch(List<PendingLookup> batch) {
+        batchCalls.increment();
+        batchSizes.record(batch.size());
+        // A product can only be pending twice if it was invalidated in between; it is requested once
+        List<String> productIds = batch.stream().map(PendingLookup::productId).distinct().toList();
+        ListProductsRequest request = ListProductsRequest.newBuilder()
+                .addAllProductIds(productIds)
+                .build();
+        // The batch answers getProduct calls, so it gets their deadline rather than the ListProducts one:
+        // the earliest of the waiting callers', which already includes the time spent in the batch window
+        Deadline deadline = batch.stream().map(PendingLookup::deadline).reduce(Deadline::minimum).orElseThrow();
+
+        call(LIST_PRODUCTS, hedgingEnabled, () -> productServiceFutureStub
+                .withDeadline(deadline)
+                .listProducts(request)).whenComplete((response, error) -> {
+            Map<String, Product> products = new HashMap<>();
+            if (error == null) {
+                for (Product product : response.getProductsList()) {
+                    products.put(product.getId(), product);
+                }
+            }
+            for (PendingLookup lookup : batch) {
+                Product product = products.get(lookup.productId());
+                if (error != null) {
+                    lookup.result().completeExceptionally(error);
+                } else if (product == null) {
+                    lookup.result().completeExceptionally(
+                            new ResourceNotFoundException("Product not found: " + lookup.productId()));
+                } else {
+                    lookup.result().complete(product);
+                }
+            }
+        });
+    }
+
+    private static boolean isUuid(String productId) {
+        try {
+            UUID.fromString(productId);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private CompletableFuture<Product> getProductByIdAsync(String productId) {
+        GetProductRequest request = GetProductRequest.newBuilder()
+                .setProductId(productId)
+                .build();
+        return call(GET_PRODUCT, hedgingEnabled, () -> productServiceFutureStub
+                .withDeadlineAfter(getProductDeadline.toMillis(), TimeUnit.MILLISECONDS)
+                .getProductById(request));
+    }
+
+    private <T> CompletableFuture<T> call(String method, boolean hedge, Supplier<ListenableFuture<T>> attempt) {
+        long start = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // Attempts that may still complete the result; it only fails once none are left
+        AtomicInteger outstanding = new AtomicInteger(1);
+
+        ListenableFuture<T> first = attempt.get();
+        forward(first, result, outstanding);
+        result.whenComplete((value, error) -> first.cancel(true));
+
+        if (hedge) {
+            ScheduledFuture<?> hedgeTimer = scheduler.schedule(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                outstanding.incrementAndGet();
+                hedgedCalls.increment();
+                ListenableFuture<T> second = attempt.get();
+                forward(second, result, outstanding);
+                result.whenComplete((value, error) -> second.cancel(true));
+            }, hedgeDelay(method).toNanos(), TimeUnit.NANOSECONDS);
+            result.whenComplete((value, error) -> hedgeTimer.cancel(false));
+        }
+
+        result.whenComplete((value, error) -> latency(method, error == null ? "success" : "error")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        return result;
+    }
+
+    private static <T> void forward(ListenableFuture<T> attempt, CompletableFuture<T> result, AtomicInteger outstanding) {
+        Futures.addCallback(attempt, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(error);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private Duration hedgeDelay(String method) {
+        for (ValueAtPercentile value : latency(method, "success").takeSnapshot().percentileValues()) {
+            if (value.percentile() == hedgePercentile) {
+                long nanos = (long) value.value(TimeUnit.NANOSECONDS);
+                return nanos > minHedgeDelay.toNanos() ? Duration.ofNanos(nanos) : minHedgeDelay;
+            }
+        }
+        return minHedgeDelay;
+    }
+
+    private Timer latency(String method, String outcome) {
+        return Timer.builder("product.grpc.client.latency")
+                .description("Latency of product-service calls, including hedged attempts")
+                .tag("method", method)
+                .tag("outcome", outcome)
+                .publishPercentiles(hedgePercentile)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // Unwraps the future's failure so blocking callers see the gRPC StatusRuntimeException as before
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
     }
-}
\ No newline at end of file
+}
@@ -1,48 +1,111 @@
 package com.bob.cartservice.kafka;
 
+import com.bob.cartservice.grpc.ProductGrpcClient;
 import com.bob.cartservice.service.CartService;
+import com.bob.cartservice.service.ProductCatalogCache;
 import com.bob.product.proto.Product;
 import com.bob.product.proto.ProductDeletedEvent;
 import com.google.protobuf.InvalidProtocolBufferException;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class KafkaConsumer {
 
+    private static final String PRODUCT_UPDATED_TOPIC = "product.updated";
+    private static final String PRODUCT_DELETED_TOPIC = "product.deleted";
+
     private final CartService cartService;
+    private final ProductCatalogCache productCatalog;
+    private final ProductGrpcClient productGrpcClient;
+    private final Counter consumedEvents;
+    private final Counter coalescedEvents;
 
-    @KafkaListener(topics = "product.updated", groupId = "cart-service-group")
-    public void consumeProductUpdatedEvent(byte[] message) {
-        try {
-            // 1. Parse byte[] back to Protobuf Object
-            Product productEvent = Product.parseFrom(message);
+    public KafkaConsumer(CartService cartService, ProductCatalogCache productCatalog,
+                         ProductGrpcClient productGrpcClient, MeterRegistry meterRegistry) {
+        this.cartService = cartService;
+        this.productCatalog = productCatalog;
+        this.productGrpcClient = productGrpcClient;
+        this.consumedEvents = Counter.builder("cart.product.events.consumed")
+                .description("Product events received from Kafka")
+                .register(meterRegistry);
+        this.coalescedEvents = Counter.builder("cart.product.events.coalesced")
+                .description("Product events dropped because a later event for the same product was in the batch")
+                .register(meterRegistry);
+    }
 
-            log.info("Consumed product update for ID: {}", productEvent.getId());
+    // Both topics share one batch listener so an update and a deletion of the same product coalesce
+    @KafkaListener(topics = {PRODUCT_UPDATED_TOPIC, PRODUCT_DELETED_TOPIC}, groupId = "cart-service-group", batch = "true")
+    public void consumeProductEvents(List<ConsumerRecord<String, byte[]>> records, Acknowledgment ack) {
+        // 1. Keep only the latest event per product; a deletion wins over any update
+        Map<String, Product> latestUpdates = new LinkedHashMap<>();
+        Map<String, ProductDeletedEvent> deletions = new LinkedHashMap<>();
+        int unreadable = 0;
 
-            // 2. Trigger business logic
-            cartService.handleProductUpdate(productEvent);
+        for (ConsumerRecord<String, byte[]> record : records) {
+            try {
+                if (PRODUCT_DELETED_TOPIC.equals(record.topic())) {
+                    ProductDeletedEvent event = ProductDeletedEvent.parseFrom(record.value());
+                    deletions.put(event.getProductId(), event);
+                    latestUpdates.remove(event.getProductId());
+                } else {
+                    Product productEvent = Product.parseFrom(record.value());
+                    if (!deletions.containsKey(productEvent.getId())) {
+                        latestUpdates.put(productEvent.getId(), productEvent);
+                    }
+                }
+            } catch (InvalidProtocolBufferException e) {
+                log.error("Failed to parse {} protobuf message at offset {}", record.topic(), record.offset(), e);
+                unreadable++;
+            }
+        }
 
-        } catch (InvalidProtocolBufferException e) {
-            log.error("Failed to parse Product protobuf message", e);
+        int applied = latestUpdates.size() + deletions.size();
+        consumedEvents.increment(records.size());
+        coalescedEvents.increment(records.size() - unreadable - applied);
+        log.info("Consumed {} product events, applying {} after coalescing", records.size(), applied);
+
+        // 2. One fan-out per product (each returns once every cart holding the product is updated)
+        for (String productId : deletions.keySet()) {
+            cartService.handleProductDeletion(productId);
+        }
+        for (Product productEvent : latestUpdates.values()) {
+            cartService.handleProductUpdate(productEvent);
         }
+
+        // 3. Commit the batch only after every fan-out; a failure leaves it uncommitted for redelivery
+        ack.acknowledge();
     }
 
-    @KafkaListener(topics = "product.deleted", groupId = "cart-service-group")
-    public void consumeProductDeletedEvent(byte[] message) {
+    // Every replica has its own catalog and product lookup caches,
+    // so each one consumes the topics in its own throwaway group.
+    // Nothing is acknowledged (ack-mode is manual), so the group never commits offsets and Kafka drops it
+    // once the replica stops, instead of keeping one group per start until offsets.retention.minutes
+    @KafkaListener(topics = {PRODUCT_UPDATED_TOPIC, PRODUCT_DELETED_TOPIC}, groupId = "cart-catalog-${random.uuid}",
+            properties = "auto.offset.reset=latest")
+    public void refreshCatalog(ConsumerRecord<String, byte[]> record) {
         try {
-            ProductDeletedEvent event = ProductDeletedEvent.parseFrom(message);
-            log.info("Consumed product deletion for ID: {}", event.getProductId());
-
-            // Trigger cleanup
-            cartService.handleProductDeletion(event.getProductId());
-
+            if (PRODUCT_DELETED_TOPIC.equals(record.topic())) {
+                String productId = ProductDeletedEvent.parseFrom(record.value()).getProductId();
+                productGrpcClient.invalidate(productId);
+                productCatalog.onProductDeleted(productId);
+            } else {
+                Product product = Product.parseFrom(record.value());
+                productGrpcClient.invalidate(product.getId());
+                productCatalog.onProductUpdated(product);
+            }
         } catch (InvalidProtocolBufferException e) {
-            log.error("Failed to parse ProductDeletedEvent protobuf message", e);
+            log.error("Failed to parse {} protobuf message at offset {}", record.topic(), record.offset(), e);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package com.bob.cartservice.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 import java.math.BigDecimal;
@@ -11,6 +13,23 @@ public class Cart {
     private String userId;
     private List<CartItem> items = new ArrayList<>();
 
-    private BigDecimal totalAmount = BigDecimal.ZERO;
+    // Total in minor units of the cart currency
+    @JsonIgnore
+    private long totalAmountMinor = 0;
+    private String currency = MinorUnits.DEFAULT_CURRENCY;
     private int totalQuantity = 0;
+
+    // Incremented by every committed write, lets callers detect concurrent changes
+    private long version = 0;
+
+    // Decimal view for legacy JSON carts; only totalAmountMinor is used in calculations
+    @JsonProperty("totalAmount")
+    public BigDecimal getTotalAmount() {
+        return MinorUnits.toBigDecimal(totalAmountMinor);
+    }
+
+    @JsonProperty("totalAmount")
+    public void setTotalAmount(BigDecimal totalAmount) {
+        this.totalAmountMinor = MinorUnits.fromBigDecimal(totalAmount);
+    }
 }
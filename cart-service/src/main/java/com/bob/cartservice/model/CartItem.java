@@ -1,5 +1,7 @@
 package com.bob.cartservice.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 import java.math.BigDecimal;
@@ -12,9 +14,26 @@ public class CartItem {
     // Snapshot of product (VERY IMPORTANT)
     private String name;
     private String brand;
-    private BigDecimal price;
+    // Unit price in minor units of the cart currency
+    @JsonIgnore
+    private long priceMinor;
     private String imageUrl;
 
     // optional
     private boolean available;  // if product disabled/out-of-stock
+
+    // Version of the product snapshot the price was taken from, for lazy repricing (0 = none)
+    @JsonIgnore
+    private long snapshotVersion;
+
+    // Decimal view for API responses and legacy JSON carts; only priceMinor is used in calculations
+    @JsonProperty("price")
+    public BigDecimal getPrice() {
+        return MinorUnits.toBigDecimal(priceMinor);
+    }
+
+    @JsonProperty("price")
+    public void setPrice(BigDecimal price) {
+        this.priceMinor = MinorUnits.fromBigDecimal(price);
+    }
 }
@@ -0,0 +1,52 @@
+package com.bob.cartservice.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money amounts held as {@code long} minor units (hundredths, e.g. cents), matching to_cents in the cart scripts.
+ * Carts are single-currency, priced in {@link #DEFAULT_CURRENCY}.
+ */
+public final class MinorUnits {
+
+    public static final String DEFAULT_CURRENCY = "USD";
+    private static final int FRACTION_DIGITS = 2;
+
+    private MinorUnits() {
+    }
+
+    /**
+     * Parses a decimal string such as "12.5" without going through BigDecimal for the common
+     * case of at most two fraction digits.
+     */
+    public static long parse(String decimal) {
+        int length = decimal.length();
+        int start = decimal.startsWith("-") ? 1 : 0;
+        int point = decimal.indexOf('.');
+        int fractionDigits = point < 0 ? 0 : length - point - 1;
+        if (length == start || fractionDigits > FRACTION_DIGITS || point == start) {
+            return fromBigDecimal(new BigDecimal(decimal));
+        }
+
+        long units = Long.parseLong(decimal, start, point < 0 ? length : point, 10) * 100;
+        if (fractionDigits > 0) {
+            long fraction = Long.parseLong(decimal, point + 1, length, 10);
+            units += fractionDigits == 1 ? fraction * 10 : fraction;
+        }
+        return start == 1 ? -units : units;
+    }
+
+    public static String format(long units) {
+        long abs = Math.abs(units);
+        long fraction = abs % 100;
+        return (units < 0 ? "-" : "") + abs / 100 + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    public static BigDecimal toBigDecimal(long units) {
+        return BigDecimal.valueOf(units, FRACTION_DIGITS);
+    }
+
+    public static long fromBigDecimal(BigDecimal amount) {
+        return amount.setScale(FRACTION_DIGITS, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+}
@@ -0,0 +1,196 @@
+package com.bob.cartservice.repository;
+
+import com.bob.cartservice.model.Cart;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.SubscriptionListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optional in-process cache of recently read carts, kept per replica.
+ * <p>
+ * Every cart write publishes the written userIds on {@link #CHANNEL}; every replica (including the writer)
+ * drops those carts when the message arrives. A load that raced with an invalidation is not cached:
+ * {@link #stamp} is taken before reading Redis and {@link #put} is skipped if the user's stripe was
+ * invalidated since.
+ * <p>
+ * Pub/sub is fire-and-forget, and carts also change without a write from this service (Redis TTL expiry,
+ * manual deletes), so entries also expire {@code cart.cache.ttl} after they were loaded, and the whole
+ * cache is dropped whenever the invalidation channel is (re)subscribed, as messages sent while the
+ * subscription was down are lost.
+ * <p>
+ * Entries are keyed by userId only. A reader does not know the cart's version before reading Redis, so a
+ * userId+version key would cost a round trip on every hit; the version is carried by the cached cart instead.
+ */
+@Component
+public class CartCache {
+
+    static final String CHANNEL = "cart-invalidation";
+
+    private static final char TIMESTAMP_SEPARATOR = '|';
+    private static final String USER_SEPARATOR = ",";
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final Map<String, Entry> carts;
+    // Bumped on every invalidation of a user in the stripe
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer invalidationLag;
+    private final Counter resets;
+
+    private record Entry(Cart cart, long expiresAt) {
+    }
+
+    public CartCache(StringRedisTemplate stringRedisTemplate,
+                     RedisMessageListenerContainer listenerContainer,
+                     MeterRegistry meterRegistry,
+                     @Value("${cart.cache.enabled:false}") boolean enabled,
+                     @Value("${cart.cache.max-size:10000}") int maxSize,
+                     @Value("${cart.cache.ttl:5s}") Duration ttl) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.enabled = enabled;
+        this.ttlNanos = ttl.toNanos();
+        // Access-ordered, so the least recently read cart is evicted first
+        this.carts = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        });
+
+        this.hits = Counter.builder("cart.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("cart.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.invalidationLag = Timer.builder("cart.cache.invalidation.lag")
+                .description("Time from a cart write to its invalidation reaching this replica; cart.cache.ttl caps staleness")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.resets = Counter.builder("cart.cache.resets")
+                .description("Whole-cache drops on (re)subscription to the invalidation channel")
+                .register(meterRegistry);
+        Gauge.builder("cart.cache.size", carts, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    void subscribe() {
+        if (enabled) {
+            listenerContainer.addMessageListener(new InvalidationListener(), new ChannelTopic(CHANNEL));
+        }
+    }
+
+    private final class InvalidationListener implements MessageListener, SubscriptionListener {
+
+        @Override
+        public void onMessage(Message message, byte[] pattern) {
+            onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8));
+        }
+
+        // Also called after a reconnect: whatever was published while disconnected never arrives
+        @Override
+        public void onChannelSubscribed(byte[] channel, long count) {
+            clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<Cart> get(String userId) {
+        Entry entry = carts.get(userId);
+        if (entry == null || entry.expiresAt() - System.nanoTime() <= 0) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(entry.cart());
+    }
+
+    /**
+     * Generation of the user's stripe, to be passed to {@link #put} after loading the cart.
+     */
+    public long stamp(String userId) {
+        return generations.get(stripe(userId));
+    }
+
+    public void put(String userId, Cart cart, long stamp) {
+        synchronized (carts) {
+            if (generations.get(stripe(userId)) == stamp) {
+                carts.put(userId, new Entry(cart, System.nanoTime() + ttlNanos));
+            }
+        }
+    }
+
+    public void invalidate(String userId) {
+        invalidateAll(List.of(userId));
+    }
+
+    /**
+     * Drops the carts locally and tells every other replica to do the same, in one PUBLISH.
+     */
+    public void invalidateAll(Collection<String> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return;
+        }
+        evict(userIds);
+        stringRedisTemplate.convertAndSend(CHANNEL,
+                System.currentTimeMillis() + String.valueOf(TIMESTAMP_SEPARATOR) + String.join(USER_SEPARATOR, userIds));
+    }
+
+    private void onInvalidation(String message) {
+        int separator = message.indexOf(TIMESTAMP_SEPARATOR);
+        long publishedAt = Long.parseLong(message, 0, separator, 10);
+        evict(List.of(message.substring(separator + 1).split(USER_SEPARATOR)));
+        invalidationLag.record(Math.max(0, System.currentTimeMillis() - publishedAt), TimeUnit.MILLISECONDS);
+    }
+
+    private void evict(Collection<String> userIds) {
+        synchronized (carts) {
+            for (String userId : userIds) {
+                generations.incrementAndGet(stripe(userId));
+                carts.remove(userId);
+            }
+        }
+    }
+
+    // Drops every cart, and makes every load in flight skip its put
+    private void clear() {
+        synchronized (carts) {
+            for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+                generations.incrementAndGet(stripe);
+            }
+            carts.clear();
+        }
+        resets.increment();
+    }
+
+    private static int stripe(String userId) {
+        return Math.floorMod(userId.hashCode(), GENERATION_STRIPES);
+    }
+}
@@ -0,0 +1,142 @@
+package com.bob.cartservice.repository;
+
+import com.bob.cart.proto.CartItemDetails;
+import com.bob.cartservice.model.Cart;
+import com.bob.cartservice.model.CartItem;
+import com.bob.cartservice.model.MinorUnits;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts between {@link Cart} and the per-user Redis hash layout.
+ * <p>
+ * Layout of {@code cart:{userId}}:
+ * <pre>
+ *   {productId}     -> "{quantity}|{price}|{details}"
+ *   @totalQuantity  -> "3"
+ *   @totalAmount    -> "59.97"
+ *   @version        -> "12"
+ * </pre>
+ * Quantity and price sit in front of the details so the Lua scripts can read them without decoding the details.
+ * Name, brand and availability are only read from legacy JSON details;
+ * protobuf details carry just the priced snapshot version and the display fields come from {@code ProductCatalogCache}.
+ * Meta fields start with '@' so they never clash with a product ID.
+ * <p>
+ * The first character of the details is its schema version:
+ * <ul>
+ *   <li>{@code '{'} JSON written before the protobuf encoding; still read, rewritten on the next cart write</li>
+ *   <li>{@code '1'} base64 {@link CartItemDetails}</li>
+ * </ul>
+ * Base64 keeps the value valid UTF-8 for the string templates and the scripts.
+ */
+@Component
+@RequiredArgsConstructor
+public class CartHashCodec {
+
+    static final String META_PREFIX = "@";
+    static final String TOTAL_QUANTITY_FIELD = "@totalQuantity";
+    static final String TOTAL_AMOUNT_FIELD = "@totalAmount";
+    static final String VERSION_FIELD = "@version";
+
+    private static final char SEPARATOR = '|';
+    private static final char DETAILS_JSON = '{';
+    private static final char DETAILS_PROTO = '1';
+
+    private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+
+    private final ObjectMapper objectMapper;
+
+    // JSON details written before the protobuf encoding
+    private record ItemDetails(String name, String brand, String imageUrl, boolean available) {
+    }
+
+    public Map<String, String> encode(Cart cart) {
+        Map<String, String> fields = new HashMap<>();
+        for (CartItem item : cart.getItems()) {
+            fields.put(item.getProductId(), encodeItem(item));
+        }
+        fields.put(TOTAL_QUANTITY_FIELD, String.valueOf(cart.getTotalQuantity()));
+        fields.put(TOTAL_AMOUNT_FIELD, MinorUnits.format(cart.getTotalAmountMinor()));
+        fields.put(VERSION_FIELD, String.valueOf(cart.getVersion()));
+        return fields;
+    }
+
+    public Cart decode(String userId, Map<?, ?> fields) {
+        Cart cart = new Cart();
+        cart.setUserId(userId);
+
+        for (Map.Entry<?, ?> entry : fields.entrySet()) {
+            String field = (String) entry.getKey();
+            String value = (String) entry.getValue();
+
+            switch (field) {
+                case TOTAL_QUANTITY_FIELD -> cart.setTotalQuantity(Integer.parseInt(value));
+                case TOTAL_AMOUNT_FIELD -> cart.setTotalAmountMinor(MinorUnits.parse(value));
+                case VERSION_FIELD -> cart.setVersion(Long.parseLong(value));
+                default -> {
+                    if (!field.startsWith(META_PREFIX)) {
+                        cart.getItems().add(decodeItem(field, value));
+                    }
+                }
+            }
+        }
+        return cart;
+    }
+
+    public String encodeItem(CartItem item) {
+        return item.getQuantity() + String.valueOf(SEPARATOR)
+                + MinorUnits.format(item.getPriceMinor()) + SEPARATOR
+                + encodeDetails(item);
+    }
+
+    public CartItem decodeItem(String productId, String value) {
+        int quantityEnd = value.indexOf(SEPARATOR);
+        int priceEnd = value.indexOf(SEPARATOR, quantityEnd + 1);
+
+        CartItem item = new CartItem();
+        item.setProductId(productId);
+        item.setQuantity(Integer.parseInt(value, 0, quantityEnd, 10));
+        item.setPriceMinor(MinorUnits.parse(value.substring(quantityEnd + 1, priceEnd)));
+        decodeDetails(item, value.substring(priceEnd + 1));
+        return item;
+    }
+
+    private String encodeDetails(CartItem item) {
+        // Display fields are not stored, they are filled in from the product catalog when the cart is read
+        byte[] bytes = CartItemDetails.newBuilder()
+                .setSnapshotVersion(item.getSnapshotVersion())
+                .build()
+                .toByteArray();
+        return DETAILS_PROTO + BASE64_ENCODER.encodeToString(bytes);
+    }
+
+    private void decodeDetails(CartItem item, String details) {
+        try {
+            switch (details.charAt(0)) {
+                case DETAILS_PROTO -> {
+                    byte[] bytes = BASE64_DECODER.decode(details.substring(1));
+                    item.setSnapshotVersion(CartItemDetails.parseFrom(bytes).getSnapshotVersion());
+                }
+                case DETAILS_JSON -> {
+                    ItemDetails json = objectMapper.readValue(details, ItemDetails.class);
+                    item.setName(json.name());
+                    item.setBrand(json.brand());
+                    item.setImageUrl(json.imageUrl());
+                    item.setAvailable(json.available());
+                }
+                default -> throw new IllegalStateException("Unknown details version '" + details.charAt(0)
+                        + "' for cart item " + item.getProductId());
+            }
+        } catch (JsonProcessingException | InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Failed to decode cart item " + item.getProductId(), e);
+        }
+    }
+}
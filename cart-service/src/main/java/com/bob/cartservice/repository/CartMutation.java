@@ -0,0 +1,20 @@
+package com.bob.cartservice.repository;
+
+import com.bob.cartservice.model.Cart;
+
+/**
+ * Outcome of a scripted cart mutation.
+ *
+ * @param status What the script did to the targeted item
+ * @param cart   The cart as it was committed, or null for scripts that only report a status
+ */
+public record CartMutation(Status status, Cart cart) {
+
+    // Ordinals match the status codes returned by the Lua scripts
+    public enum Status {
+        UNCHANGED,
+        UPDATED,
+        REMOVED,
+        ITEM_MISSING
+    }
+}
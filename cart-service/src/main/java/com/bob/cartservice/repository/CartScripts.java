@@ -0,0 +1,48 @@
+package com.bob.cartservice.repository;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Lua scripts for the common cart mutations. Each mutation script is prefixed with the shared helpers in common.lua.
+ * <p>
+ * Spring runs scripts with EVALSHA and only falls back to EVAL (which caches the script on the server)
+ * when Redis answers NOSCRIPT, so after the first call every mutation is a single round trip.
+ */
+final class CartScripts {
+
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> ADD_ITEM = load("add_item.lua");
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> REMOVE_ITEM = load("remove_item.lua");
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> REPRICE_ITEM = load("reprice_item.lua");
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> SCAN_INDEX = new DefaultRedisScript<>(read("scan_index.lua"), List.class);
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> SCAN_KEYS = new DefaultRedisScript<>(read("scan_keys.lua"), List.class);
+    static final RedisScript<Long> GROW_INDEX = new DefaultRedisScript<>(read("grow_index.lua"), Long.class);
+    static final RedisScript<Long> RECORD_SNAPSHOT = new DefaultRedisScript<>(read("record_snapshot.lua"), Long.class);
+
+    private CartScripts() {
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static RedisScript<List> load(String name) {
+        return new DefaultRedisScript<>(read("common.lua") + read(name), List.class);
+    }
+
+    private static String read(String name) {
+        try {
+            return new ClassPathResource("scripts/cart/" + name).getContentAsString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load cart script " + name, e);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.bob.cartservice.repository;
+
+/**
+ * Checkpoint of a product fan-out over one index bucket, so a restarted consumer can resume instead of starting over.
+ *
+ * @param event  Fingerprint of the event being applied; progress only applies to the same event
+ * @param cursor SSCAN cursor of the next page to process, or {@link IndexPage#START} once the bucket is done
+ */
+public record FanOutProgress(String event, String cursor) {
+
+    // Progress is only saved after a page, so a saved start cursor means the scan wrapped around
+    public boolean isComplete() {
+        return IndexPage.START.equals(cursor);
+    }
+}
@@ -0,0 +1,18 @@
+package com.bob.cartservice.repository;
+
+import java.util.List;
+
+/**
+ * One SSCAN page of a product index.
+ *
+ * @param cursor  Cursor to continue from; {@link #START} once the whole set has been walked
+ * @param userIds Users found on this page (SSCAN may return a user more than once across pages)
+ */
+public record IndexPage(String cursor, List<String> userIds) {
+
+    public static final String START = "0";
+
+    public boolean isLast() {
+        return START.equals(cursor);
+    }
+}
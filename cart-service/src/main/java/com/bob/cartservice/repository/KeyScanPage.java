@@ -0,0 +1,16 @@
+package com.bob.cartservice.repository;
+
+import java.util.List;
+
+/**
+ * One SCAN page of keys.
+ *
+ * @param cursor Cursor to continue from; {@link IndexPage#START} once the whole keyspace has been walked
+ * @param keys   Keys found on this page
+ */
+public record KeyScanPage(String cursor, List<String> keys) {
+
+    public boolean isLast() {
+        return IndexPage.START.equals(cursor);
+    }
+}
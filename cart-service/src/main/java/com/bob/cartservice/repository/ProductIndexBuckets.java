@@ -0,0 +1,160 @@
+package com.bob.cartservice.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bucket layout of the product index, so a best-seller's index is spread over several keys (and cluster shards).
+ * <p>
+ * A product starts with one bucket, {@code product-index:{productId}}, which is also the pre-sharding key.
+ * Once a bucket passes the size threshold the bucket count doubles, up to a maximum; the count lives in
+ * {@code product-index-buckets:{productId}}. Bucket {@code b > 0} is {@code product-index:{productId}:{b}}.
+ * <p>
+ * A user goes to bucket {@code hash(userId) mod count}. Entries are never moved when the count grows:
+ * because counts are powers of two, a user can only be in its bucket under the count at the time it was
+ * added, which is one of the powers of two up to the maximum (see {@link #candidateBuckets}).
+ * <p>
+ * Writes use a short-lived cached count. That is safe because the count only grows: an entry written under
+ * a stale count lands in a bucket below the current count, which readers scan. Removals cannot rely on
+ * the cache, since another replica may have grown the count and added the user under it meanwhile; they
+ * cover the user's bucket under every count up to the maximum instead ({@link #removalBuckets}).
+ * Lowering {@code cart.index.max-buckets} below a count already reached would hide entries from removals.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+class ProductIndexBuckets {
+
+    private static final String INDEX_PREFIX = "product-index:";
+    private static final String BUCKETS_PREFIX = "product-index-buckets:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private record CachedCount(int count, long expiresAt) {
+    }
+
+    private final Map<String, CachedCount> counts = new ConcurrentHashMap<>();
+
+    // Bucket size that makes the index double its bucket count
+    @Value("${cart.index.bucket-threshold:50000}")
+    private long bucketThreshold;
+
+    @Value("${cart.index.max-buckets:64}")
+    private int maxBuckets;
+
+    // How long a bucket count is reused before it is read from Redis again
+    @Value("${cart.index.bucket-count-ttl:10s}")
+    private Duration countTtl;
+
+    static String key(String productId, int bucket) {
+        return bucket == 0 ? INDEX_PREFIX + productId : INDEX_PREFIX + productId + ":" + bucket;
+    }
+
+    static String countKey(String productId) {
+        return BUCKETS_PREFIX + productId;
+    }
+
+    static int bucketOf(String userId, int count) {
+        return Math.floorMod(userId.hashCode(), count);
+    }
+
+    /**
+     * Buckets that may hold the user: its bucket under {@code count} and under every smaller count.
+     */
+    static Set<Integer> candidateBuckets(String userId, int count) {
+        Set<Integer> buckets = new LinkedHashSet<>();
+        for (int n = count; n >= 1; n /= 2) {
+            buckets.add(bucketOf(userId, n));
+        }
+        return buckets;
+    }
+
+    /**
+     * Buckets a removal must cover: the user's bucket under every count the index can reach.
+     * At most log2(max-buckets) + 1 keys, and no bucket count lookup.
+     */
+    Set<Integer> removalBuckets(String userId) {
+        return candidateBuckets(userId, maxBuckets);
+    }
+
+    /**
+     * Bucket count for adds, served from a short-lived local cache.
+     */
+    int count(String productId) {
+        CachedCount cached = counts.get(productId);
+        if (cached != null && cached.expiresAt() > System.currentTimeMillis()) {
+            return cached.count();
+        }
+        return freshCount(productId);
+    }
+
+    /**
+     * Bucket counts for several products, reading the ones not cached in one MGET.
+     */
+    List<Integer> counts(List<String> productIds) {
+        List<Integer> result = new ArrayList<>(productIds.size());
+        List<String> misses = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String productId : productIds) {
+            CachedCount cached = counts.get(productId);
+            if (cached == null || cached.expiresAt() <= now) {
+                misses.add(countKey(productId));
+            }
+        }
+
+        List<String> loaded = misses.isEmpty() ? List.of() : stringRedisTemplate.opsForValue().multiGet(misses);
+        int next = 0;
+        for (String productId : productIds) {
+            CachedCount cached = counts.get(productId);
+            if (cached == null || cached.expiresAt() <= now) {
+                result.add(remember(productId, loaded.get(next++)));
+            } else {
+                result.add(cached.count());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bucket count read from Redis, for readers that must see every bucket (fan-out, deletion).
+     */
+    int freshCount(String productId) {
+        return remember(productId, stringRedisTemplate.opsForValue().get(countKey(productId)));
+    }
+
+    /**
+     * Doubles the bucket count once a bucket written under {@code seenCount} has grown past the threshold.
+     */
+    void growIfNeeded(String productId, int seenCount, long bucketSize) {
+        if (bucketSize <= bucketThreshold || seenCount >= maxBuckets) {
+            return;
+        }
+        Long count = stringRedisTemplate.execute(CartScripts.GROW_INDEX,
+                List.of(countKey(productId)), String.valueOf(seenCount), String.valueOf(seenCount * 2));
+        if (count != null && count == seenCount * 2L) {
+            log.info("Product index {} grew to {} buckets", productId, count);
+        }
+        remember(productId, String.valueOf(count));
+    }
+
+    void forget(String productId) {
+        counts.remove(productId);
+    }
+
+    private int remember(String productId, String stored) {
+        int count = stored != null ? Integer.parseInt(stored) : 1;
+        counts.put(productId, new CachedCount(count, System.currentTimeMillis() + countTtl.toMillis()));
+        return count;
+    }
+}
@@ -0,0 +1,17 @@
+package com.bob.cartservice.repository;
+
+import com.bob.cartservice.model.CartItem;
+
+/**
+ * Latest price and inventory of a product as seen on the product topic, for lazy repricing.
+ *
+ * @param version    Bumped on every change; a line priced at an older version is stale
+ * @param priceMinor Unit price in minor units
+ * @param inventory  Available inventory
+ */
+public record ProductSnapshot(long version, long priceMinor, int inventory) {
+
+    public boolean isNewerThan(CartItem item) {
+        return version > item.getSnapshotVersion();
+    }
+}
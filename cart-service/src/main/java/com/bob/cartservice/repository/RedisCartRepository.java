@@ -1,19 +1,25 @@
 package com.bob.cartservice.repository;
 
+import com.bob.cartservice.exception.CartConcurrentModificationException;
 import com.bob.cartservice.model.Cart;
+import com.bob.cartservice.model.CartItem;
+import com.bob.cartservice.model.MinorUnits;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.UnaryOperator;
 
 @Repository
@@ -22,104 +28,721 @@ public class RedisCartRepository {
 
     private final RedisTemplate<String, Cart> redisTemplate;
     private final StringRedisTemplate stringRedisTemplate;
+    private final CartHashCodec cartHashCodec;
+    private final CartCache cartCache;
+    private final ProductIndexBuckets indexBuckets;
 
     private static final String CART_PREFIX = "cart:";
     private static final Duration CART_TTL = Duration.ofDays(30);
+    private static final String FAN_OUT_PREFIX = "fan-out:";
+    // Latest price/inventory per product for lazy repricing; never expires, a cart line may be priced at any version
+    private static final String SNAPSHOT_PREFIX = "product-snapshot:";
+    private static final char SNAPSHOT_SEPARATOR = '|';
+    // Reverse index: products a user's cart is indexed under, so index entries can be dropped with the cart
+    private static final String CART_PRODUCTS_PREFIX = "cart-products:";
+    // Outlives the cart, so it is still there when the cart's expiry is handled
+    private static final Duration CART_PRODUCTS_TTL = CART_TTL.plusDays(7);
+    private static final String LEASE_PREFIX = "lease:";
+    private static final String SWEEP_CURSOR_PREFIX = "sweep-cursor:";
+    // Size of the index bucket a new line was added to, appended to the add_item reply
+    private static final String INDEX_SIZE_FIELD = "@indexSize";
+    // Abandoned checkpoints (e.g. a product that is never updated again) clean themselves up
+    private static final Duration FAN_OUT_PROGRESS_TTL = Duration.ofDays(1);
+
+    @Value("${cart.update.max-attempts:8}")
+    private int maxUpdateAttempts;
+
+    @Value("${cart.update.base-backoff:5ms}")
+    private Duration baseBackoff;
+
+    @Value("${cart.update.max-backoff:200ms}")
+    private Duration maxBackoff;
 
     public void save(Cart cart) {
         String key = CART_PREFIX + cart.getUserId();
-        redisTemplate.opsForValue().set(key, cart, CART_TTL);
+        redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                operations.multi();
+                operations.delete(key);
+                operations.opsForHash().putAll(key, cartHashCodec.encode(cart));
+                operations.expire(key, CART_TTL);
+                return operations.exec();
+            }
+        });
+        cartCache.invalidate(cart.getUserId());
     }
 
     public Optional<Cart> findByUserId(String userId) {
         String key = CART_PREFIX + userId;
-        return Optional.ofNullable(redisTemplate.opsForValue().get(key));
+        try {
+            Map<Object, Object> fields = redisTemplate.opsForHash().entries(key);
+            if (fields.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(cartHashCodec.decode(userId, fields));
+        } catch (DataAccessException e) {
+            if (!isLegacyDocument(e)) {
+                throw e;
+            }
+            // Cart written as a single JSON document before the hash layout; it is migrated on the next write
+            return Optional.ofNullable(redisTemplate.opsForValue().get(key));
+        }
+    }
+
+    /**
+     * {@link #findByUserId} served from the in-process cache when it is enabled, for read-only callers.
+     * The returned cart may be shared with other readers and must not be modified.
+     */
+    public Optional<Cart> findCachedByUserId(String userId) {
+        if (!cartCache.isEnabled()) {
+            return findByUserId(userId);
+        }
+        Optional<Cart> cached = cartCache.get(userId);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        long stamp = cartCache.stamp(userId);
+        Optional<Cart> cart = findByUserId(userId);
+        cart.ifPresent(loaded -> cartCache.put(userId, loaded, stamp));
+        return cart;
     }
 
+    /**
+     * Deletes the cart and removes the user from the index of every product in it, in one transaction.
+     */
     public void delete(String userId) {
-        String key = CART_PREFIX + userId;
-        redisTemplate.delete(key);
+        dropCartIndex(userId, true);
+        cartCache.invalidate(userId);
+    }
+
+    /**
+     * Removes the user from the product index after its cart disappeared (expired or deleted elsewhere).
+     * Does nothing if the cart exists again, e.g. because the DEL was part of a rewrite of the cart.
+     */
+    public void purgeIndexOfMissingCart(String userId) {
+        dropCartIndex(userId, false);
+    }
+
+    private void dropCartIndex(String userId, boolean deleteCart) {
+        String cartKey = CART_PREFIX + userId;
+        String cartProductsKey = CART_PRODUCTS_PREFIX + userId;
+
+        for (int attempt = 1; ; attempt++) {
+            Boolean done = stringRedisTemplate.execute(new SessionCallback<Boolean>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Boolean execute(RedisOperations operations) throws DataAccessException {
+                    // 1. WATCH the cart and its reverse index
+                    operations.watch(List.of(cartKey, cartProductsKey));
+
+                    if (!deleteCart && Boolean.TRUE.equals(operations.hasKey(cartKey))) {
+                        operations.unwatch();
+                        return true;
+                    }
+
+                    // 2. Work out every index key the user may sit in (read before MULTI)
+                    Set<String> productIds = operations.opsForSet().members(cartProductsKey);
+                    List<String> indexKeys = new ArrayList<>();
+                    if (productIds != null) {
+                        for (String productId : productIds) {
+                            indexKeys.addAll(candidateIndexKeys(productId, userId));
+                        }
+                    }
+
+                    // 3. Drop cart, reverse index and index entries together
+                    operations.multi();
+                    if (deleteCart) {
+                        operations.delete(cartKey);
+                    }
+                    operations.delete(cartProductsKey);
+                    for (String indexKey : indexKeys) {
+                        operations.opsForSet().remove(indexKey, userId);
+                    }
+
+                    // 4. EXEC (Returns null/empty if WATCH failed)
+                    List<Object> results = operations.exec();
+                    return results != null && !results.isEmpty();
+                }
+            });
+
+            if (Boolean.TRUE.equals(done)) {
+                return;
+            }
+            if (attempt >= maxUpdateAttempts) {
+                throw new CartConcurrentModificationException(
+                        "Cart " + userId + " kept changing, gave up dropping it after " + attempt + " attempts");
+            }
+            backOff(attempt);
+        }
+    }
+
+    // --- Product Index ---
+    // The index of a product is sharded over buckets by userId, see ProductIndexBuckets.
+    // Entries are added and removed in the same script or transaction as the cart line they belong to.
+
+    public void deleteProductIndex(String productId) {
+        int bucketCount = indexBuckets.freshCount(productId);
+        List<String> keys = new ArrayList<>(bucketCount + 1);
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            keys.add(ProductIndexBuckets.key(productId, bucket));
+        }
+        keys.add(ProductIndexBuckets.countKey(productId));
+        stringRedisTemplate.delete(keys);
+        indexBuckets.forget(productId);
+    }
+
+    /**
+     * Number of buckets a fan-out has to scan for the product, read from Redis.
+     */
+    public int getIndexBucketCount(String productId) {
+        return indexBuckets.freshCount(productId);
+    }
+
+    /**
+     * Reads one page of a product index bucket with SSCAN, so large indexes are never loaded whole.
+     *
+     * @param bucket Bucket to scan, from 0 to {@link #getIndexBucketCount} - 1
+     * @param cursor {@link IndexPage#START} for the first page, otherwise the cursor of the previous page
+     * @param count  COUNT hint for SSCAN
+     */
+    @SuppressWarnings("unchecked")
+    public IndexPage scanUsersWithProduct(String productId, int bucket, String cursor, int count) {
+        List<Object> reply = stringRedisTemplate.execute(CartScripts.SCAN_INDEX,
+                List.of(ProductIndexBuckets.key(productId, bucket)), cursor, String.valueOf(count));
+        return new IndexPage((String) reply.get(0), (List<String>) reply.get(1));
+    }
+
+    // --- Index Maintenance ---
+
+    /**
+     * One SCAN page of product index bucket keys, for the orphan sweep.
+     */
+    @SuppressWarnings("unchecked")
+    public KeyScanPage scanProductIndexKeys(String cursor, int count) {
+        List<Object> reply = stringRedisTemplate.execute(CartScripts.SCAN_KEYS,
+                List.of(), cursor, ProductIndexBuckets.key("*", 0), String.valueOf(count));
+        return new KeyScanPage((String) reply.get(0), (List<String>) reply.get(1));
+    }
+
+    /**
+     * Removes the users of one index bucket whose cart no longer exists, page by page.
+     *
+     * @return Number of entries removed
+     */
+    @SuppressWarnings("unchecked")
+    public long removeOrphanIndexEntries(String indexKey, int pageSize) {
+        long removed = 0;
+        String cursor = IndexPage.START;
+        do {
+            List<Object> reply = stringRedisTemplate.execute(CartScripts.SCAN_INDEX,
+                    List.of(indexKey), cursor, String.valueOf(pageSize));
+            cursor = (String) reply.get(0);
+            List<String> userIds = (List<String>) reply.get(1);
+            if (userIds.isEmpty()) {
+                continue;
+            }
+
+            List<Object> exists = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    for (String userId : userIds) {
+                        operations.hasKey(CART_PREFIX + userId);
+                    }
+                    return null;
+                }
+            });
+            List<String> orphans = new ArrayList<>();
+            for (int i = 0; i < userIds.size(); i++) {
+                if (!Boolean.TRUE.equals(exists.get(i))) {
+                    orphans.add(userIds.get(i));
+                }
+            }
+            if (!orphans.isEmpty() && removeOrphans(indexKey, orphans)) {
+                removed += orphans.size();
+            }
+        } while (!IndexPage.START.equals(cursor));
+        return removed;
+    }
+
+    // WATCHes the orphans' cart keys, so a cart recreated meanwhile keeps its index entry (the next sweep retries)
+    private boolean removeOrphans(String indexKey, List<String> orphans) {
+        List<String> cartKeys = orphans.stream().map(userId -> CART_PREFIX + userId).toList();
+        Boolean committed = stringRedisTemplate.execute(new SessionCallback<Boolean>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Boolean execute(RedisOperations operations) throws DataAccessException {
+                operations.watch(cartKeys);
+                if (operations.countExistingKeys(cartKeys) > 0) {
+                    operations.unwatch();
+                    return false;
+                }
+                operations.multi();
+                operations.opsForSet().remove(indexKey, orphans.toArray());
+                List<Object> results = operations.exec();
+                return results != null && !results.isEmpty();
+            }
+        });
+        return Boolean.TRUE.equals(committed);
+    }
+
+    public boolean tryAcquireLease(String name, Duration duration) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(LEASE_PREFIX + name, "1", duration));
+    }
+
+    public Optional<String> findSweepCursor(String name) {
+        return Optional.ofNullable(stringRedisTemplate.opsForValue().get(SWEEP_CURSOR_PREFIX + name));
+    }
+
+    public void saveSweepCursor(String name, String cursor) {
+        stringRedisTemplate.opsForValue().set(SWEEP_CURSOR_PREFIX + name, cursor);
+    }
+
+    // --- Fan-out Progress (one checkpoint per index bucket) ---
+
+    public Optional<FanOutProgress> findFanOutProgress(String productId, int bucket) {
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(fanOutKey(productId, bucket));
+        if (fields.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new FanOutProgress((String) fields.get("event"), (String) fields.get("cursor")));
     }
 
-    // These methods to manage the index
-    // --- Indexing Methods (Use stringRedisTemplate) ---
+    public void saveFanOutProgress(String productId, int bucket, FanOutProgress progress) {
+        String key = fanOutKey(productId, bucket);
+        stringRedisTemplate.opsForHash().putAll(key, Map.of("event", progress.event(), "cursor", progress.cursor()));
+        stringRedisTemplate.expire(key, FAN_OUT_PROGRESS_TTL);
+    }
 
-    public void addProductToCartIndex(String productId, String userId) {
-        // Use stringRedisTemplate here because we are storing String (userId), not Cart
-        stringRedisTemplate.opsForSet().add("product-index:" + productId, userId);
+    public void clearFanOutProgress(String productId, int bucketCount) {
+        List<String> keys = new ArrayList<>(bucketCount);
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            keys.add(fanOutKey(productId, bucket));
+        }
+        stringRedisTemplate.delete(keys);
     }
 
-    public void removeProductFromCartIndex(String productId, String userId) {
-        stringRedisTemplate.opsForSet().remove("product-index:" + productId, userId);
+    private static String fanOutKey(String productId, int bucket) {
+        return FAN_OUT_PREFIX + productId + ":" + bucket;
     }
 
-    public Set<String> getUsersWithProduct(String productId) {
-        Set<String> members = stringRedisTemplate.opsForSet().members("product-index:" + productId);
-        if (members == null) return Collections.emptySet();
-        return members;
+    // --- Product Snapshots (lazy repricing) ---
+
+    /**
+     * Records the latest price and inventory of a product.
+     *
+     * @return The snapshot version, unchanged if neither price nor inventory changed
+     */
+    public long recordProductSnapshot(String productId, long priceMinor, int inventory) {
+        Long version = stringRedisTemplate.execute(CartScripts.RECORD_SNAPSHOT, List.of(SNAPSHOT_PREFIX + productId),
+                String.valueOf(priceMinor), String.valueOf(inventory));
+        return version != null ? version : 0;
+    }
+
+    /**
+     * Snapshots of the given products in one MGET; products with no recorded update are absent.
+     */
+    public Map<String, ProductSnapshot> findProductSnapshots(Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return Map.of();
+        }
+        List<String> products = List.copyOf(productIds);
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(products.stream().map(productId -> SNAPSHOT_PREFIX + productId).toList());
+
+        Map<String, ProductSnapshot> snapshots = new HashMap<>();
+        for (int i = 0; i < products.size(); i++) {
+            String value = values != null ? values.get(i) : null;
+            if (value != null) {
+                snapshots.put(products.get(i), parseSnapshot(value));
+            }
+        }
+        return snapshots;
+    }
+
+    public void deleteProductSnapshot(String productId) {
+        stringRedisTemplate.delete(SNAPSHOT_PREFIX + productId);
+    }
+
+    // "{version}|{price}|{inventory}", see record_snapshot.lua
+    private static ProductSnapshot parseSnapshot(String value) {
+        int versionEnd = value.indexOf(SNAPSHOT_SEPARATOR);
+        int priceEnd = value.indexOf(SNAPSHOT_SEPARATOR, versionEnd + 1);
+        return new ProductSnapshot(
+                Long.parseLong(value, 0, versionEnd, 10),
+                Long.parseLong(value, versionEnd + 1, priceEnd, 10),
+                Integer.parseInt(value, priceEnd + 1, value.length(), 10));
+    }
+
+    // --- Scripted Mutations (one EVALSHA round trip, no WATCH retries) ---
+
+    /**
+     * Adds quantity to an existing line, or inserts {@code newItem} if the line does not exist yet.
+     * Returns {@link CartMutation.Status#ITEM_MISSING} when the line is new and {@code newItem} is null,
+     * so the caller can resolve the product snapshot and call again.
+     */
+    public CartMutation addItem(String userId, String productId, int quantity, CartItem newItem) {
+        String encodedItem = newItem != null ? cartHashCodec.encodeItem(newItem) : "";
+        int bucketCount = indexBuckets.count(productId);
+        List<Object> reply = evalScript(CartScripts.ADD_ITEM, userId,
+                List.of(ProductIndexBuckets.key(productId, ProductIndexBuckets.bucketOf(userId, bucketCount))),
+                productId, String.valueOf(quantity), encodedItem, String.valueOf(CART_TTL.toSeconds()));
+
+        Map<String, String> fields = replyFields(reply);
+        String indexSize = fields.get(INDEX_SIZE_FIELD);
+        if (indexSize != null) {
+            indexBuckets.growIfNeeded(productId, bucketCount, Long.parseLong(indexSize));
+        }
+        return new CartMutation(status(reply), cartHashCodec.decode(userId, fields));
+    }
+
+    public CartMutation removeItem(String userId, String productId) {
+        List<Object> reply = evalScript(CartScripts.REMOVE_ITEM, userId, candidateIndexKeys(productId, userId),
+                productId, String.valueOf(CART_TTL.toSeconds()), "1");
+        return new CartMutation(status(reply), cartHashCodec.decode(userId, replyFields(reply)));
+    }
+
+    /**
+     * Applies a product change to one cart: drops the line if inventory no longer covers it,
+     * otherwise updates its price. The returned mutation carries no cart.
+     */
+    public CartMutation repriceItem(String userId, String productId, long priceMinor, int inventory) {
+        List<Object> reply = evalScript(CartScripts.REPRICE_ITEM, userId, candidateIndexKeys(productId, userId),
+                productId, MinorUnits.format(priceMinor), String.valueOf(inventory), String.valueOf(CART_TTL.toSeconds()));
+        return new CartMutation(status(reply), null);
+    }
+
+    /**
+     * Pipelined {@link #repriceItem} for a page of carts: one round trip for the whole page.
+     *
+     * @return The status per user, in the order of {@code userIds}
+     */
+    public List<CartMutation.Status> repriceItems(List<String> userIds, String productId, long priceMinor, int inventory) {
+        return runScriptPipelined(CartScripts.REPRICE_ITEM, userIds, productId,
+                productId, MinorUnits.format(priceMinor), String.valueOf(inventory), String.valueOf(CART_TTL.toSeconds()));
+    }
+
+    /**
+     * Pipelined {@link #removeItem} for a page of carts, replying with statuses only.
+     *
+     * @return The status per user, in the order of {@code userIds}
+     */
+    public List<CartMutation.Status> removeItems(List<String> userIds, String productId) {
+        return runScriptPipelined(CartScripts.REMOVE_ITEM, userIds, productId,
+                productId, String.valueOf(CART_TTL.toSeconds()), "0");
+    }
+
+    @SuppressWarnings("rawtypes")
+    private List<CartMutation.Status> runScriptPipelined(RedisScript<List> script, List<String> userIds,
+                                                         String productId, String... args) {
+        byte[][] argBytes = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            argBytes[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        // A pipelined EVALSHA cannot fall back to EVAL, so make sure the script is cached first
+        stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+
+        List<Object> replies = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String userId : userIds) {
+                List<String> keys = scriptKeys(userId, candidateIndexKeys(productId, userId));
+                byte[][] keysAndArgs = new byte[keys.size() + argBytes.length][];
+                for (int i = 0; i < keys.size(); i++) {
+                    keysAndArgs[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+                }
+                System.arraycopy(argBytes, 0, keysAndArgs, keys.size(), argBytes.length);
+                connection.scriptingCommands().evalSha(script.getSha1(), ReturnType.MULTI, keys.size(), keysAndArgs);
+            }
+            return null;
+        });
+
+        cartCache.invalidateAll(userIds);
+
+        List<CartMutation.Status> statuses = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            long status = (Long) ((List<?>) replies.get(i)).get(0);
+            if (status < 0) {
+                // Legacy JSON cart: migrate and retry it on its own
+                String userId = userIds.get(i);
+                statuses.add(status(evalScript(script, userId, candidateIndexKeys(productId, userId), args)));
+            } else {
+                statuses.add(CartMutation.Status.values()[(int) status]);
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Runs a cart script with KEYS = cart, reverse index, then {@code indexKeys}.
+     *
+     * @return The raw reply: status first, then the HGETALL of the cart if the script returns it
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private List<Object> evalScript(RedisScript<List> script, String userId, List<String> indexKeys, String... args) {
+        List<String> keys = scriptKeys(userId, indexKeys);
+        List<Object> reply = stringRedisTemplate.execute(script, keys, (Object[]) args);
+
+        long status = (Long) reply.get(0);
+        if (status < 0) {
+            // Legacy JSON cart: convert it to the hash layout, then run the script against it
+            updateCart(userId, UnaryOperator.identity());
+            reply = stringRedisTemplate.execute(script, keys, (Object[]) args);
+            status = (Long) reply.get(0);
+        }
+        if (status != CartMutation.Status.UNCHANGED.ordinal() && status != CartMutation.Status.ITEM_MISSING.ordinal()) {
+            cartCache.invalidate(userId);
+        }
+        return reply;
+    }
+
+    private static List<String> scriptKeys(String userId, List<String> indexKeys) {
+        List<String> keys = new ArrayList<>(indexKeys.size() + 2);
+        keys.add(CART_PREFIX + userId);
+        keys.add(CART_PRODUCTS_PREFIX + userId);
+        keys.addAll(indexKeys);
+        return keys;
+    }
+
+    // A user may sit in its bucket under any bucket count, including one another replica just grew to,
+    // so removals cover every count up to the maximum rather than trust the cached count
+    private List<String> candidateIndexKeys(String productId, String userId) {
+        List<String> keys = new ArrayList<>();
+        for (int bucket : indexBuckets.removalBuckets(userId)) {
+            keys.add(ProductIndexBuckets.key(productId, bucket));
+        }
+        return keys;
+    }
+
+    private static CartMutation.Status status(List<Object> reply) {
+        return CartMutation.Status.values()[((Long) reply.get(0)).intValue()];
+    }
+
+    // Remaining elements of a reply are the HGETALL of the cart after the mutation
+    private static Map<String, String> replyFields(List<Object> reply) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 1; i < reply.size(); i += 2) {
+            fields.put((String) reply.get(i), (String) reply.get(i + 1));
+        }
+        return fields;
     }
 
     /**
      * Atomic update using Redis Optimistic Locking (WATCH/MULTI/EXEC).
+     * Fallback for arbitrary modifiers; prefer the scripted mutations above for the common operations.
+     * <p>
+     * Only the hash fields whose encoded value changed are written back, so a single-item
+     * change costs one HSET of that item plus the totals instead of rewriting the whole cart.
+     * Legacy JSON carts are converted to the hash layout inside the same transaction, and lines added
+     * or removed are added to or removed from the product index in it too.
      *
      * @param userId   The user ID
      * @param modifier Function to apply changes to the cart
-     * @return The updated Cart object
+     * @return The committed Cart, with its new version
      */
     public Cart updateCart(String userId, UnaryOperator<Cart> modifier) {
         String key = CART_PREFIX + userId;
 
-        while (true) {
+        for (int attempt = 1; ; attempt++) {
+            Cart committed;
             try {
                 // Execute logic within a Session to ensure the same connection is used for WATCH/MULTI/EXEC
-                List<Object> results = redisTemplate.execute(new SessionCallback<List<Object>>() {
+                committed = redisTemplate.execute(new SessionCallback<Cart>() {
                     @Override
                     @SuppressWarnings("unchecked")
-                    public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                    public Cart execute(RedisOperations operations) throws DataAccessException {
                         // 1. WATCH the key
                         operations.watch(key);
 
-                        // 2. GET current state
-                        Cart cart = (Cart) operations.opsForValue().get(key);
+                        // 2. GET current state (raw fields are kept to diff against later)
+                        Map<Object, Object> storedFields = Collections.emptyMap();
+                        Cart cart = null;
+                        boolean legacy = false;
+                        try {
+                            storedFields = operations.opsForHash().entries(key);
+                            if (!storedFields.isEmpty()) {
+                                cart = cartHashCodec.decode(userId, storedFields);
+                            }
+                        } catch (DataAccessException e) {
+                            if (!isLegacyDocument(e)) {
+                                throw e;
+                            }
+                            cart = (Cart) operations.opsForValue().get(key);
+                            legacy = true;
+                        }
                         if (cart == null) {
                             cart = new Cart();
                             cart.setUserId(userId);
                         }
 
                         // 3. Apply Business Logic (Modify In-Memory)
-                        // Note: External calls (like gRPC) inside here will hold the Redis connection.
-                        // For this architecture, we accept this trade-off for atomicity.
+                        // Note: Modifiers must not make external calls (like gRPC). They would hold the Redis
+                        // connection and repeat on every retry, so callers resolve them before updateCart.
+                        long storedVersion = cart.getVersion();
                         Cart updatedCart = modifier.apply(cart);
+                        updatedCart.setVersion(storedVersion);
+
+                        // 4. Work out which fields actually changed
+                        Map<String, String> updatedFields = cartHashCodec.encode(updatedCart);
+                        Map<String, String> changedFields = new HashMap<>();
+                        for (Map.Entry<String, String> field : updatedFields.entrySet()) {
+                            if (!field.getValue().equals(storedFields.get(field.getKey()))) {
+                                changedFields.put(field.getKey(), field.getValue());
+                            }
+                        }
+                        List<Object> removedFields = new ArrayList<>();
+                        for (Object field : storedFields.keySet()) {
+                            if (!updatedFields.containsKey(field)) {
+                                removedFields.add(field);
+                            }
+                        }
+
+                        if (!legacy && changedFields.isEmpty() && removedFields.isEmpty()) {
+                            operations.unwatch();
+                            return updatedCart;
+                        }
+                        updatedCart.setVersion(storedVersion + 1);
+                        changedFields.put(CartHashCodec.VERSION_FIELD, String.valueOf(updatedCart.getVersion()));
+
+                        // Lines added or dropped move the user in or out of the product index.
+                        // A migrated legacy cart had no lines in the hash, so all of its lines count as added.
+                        List<String> addedProducts = new ArrayList<>();
+                        for (String field : updatedFields.keySet()) {
+                            if (!field.startsWith(CartHashCodec.META_PREFIX) && !storedFields.containsKey(field)) {
+                                addedProducts.add(field);
+                            }
+                        }
+                        List<String> removedProducts = new ArrayList<>();
+                        for (Object field : removedFields) {
+                            if (!((String) field).startsWith(CartHashCodec.META_PREFIX)) {
+                                removedProducts.add((String) field);
+                            }
+                        }
+                        // Bucket counts are read before MULTI, so they are not queued in the transaction
+                        List<Integer> addedBucketCounts = indexBuckets.counts(addedProducts);
+                        List<List<String>> removedIndexKeys = removedProducts.stream()
+                                .map(productId -> candidateIndexKeys(productId, userId))
+                                .toList();
 
-                        // 4. Start Transaction
+                        // 5. Start Transaction
                         operations.multi();
 
-                        // 5. SET updated state
-                        operations.opsForValue().set(key, updatedCart, CART_TTL);
+                        // 6. Write only the affected fields
+                        if (legacy) {
+                            operations.delete(key);
+                        }
+                        if (!removedFields.isEmpty()) {
+                            operations.opsForHash().delete(key, removedFields.toArray());
+                        }
+                        if (!changedFields.isEmpty()) {
+                            operations.opsForHash().putAll(key, changedFields);
+                        }
+                        operations.expire(key, CART_TTL);
+
+                        // 7. Index the same lines in the same transaction (raw commands, the template
+                        //    would serialize set members as Cart JSON); queued last so their replies are at the end
+                        int indexReplies = queueIndexChanges(operations, userId,
+                                addedProducts, addedBucketCounts, removedProducts, removedIndexKeys);
 
-                        // 6. EXEC (Returns null/empty if WATCH failed)
-                        return operations.exec();
+                        // 8. EXEC (Returns null/empty if WATCH failed)
+                        List<Object> results = operations.exec();
+                        if (results == null || results.isEmpty()) {
+                            return null;
+                        }
+                        // Each added product queued SADD + SCARD first, so the bucket sizes are at odd offsets
+                        int firstIndexReply = results.size() - indexReplies;
+                        for (int i = 0; i < addedProducts.size(); i++) {
+                            indexBuckets.growIfNeeded(addedProducts.get(i), addedBucketCounts.get(i),
+                                    (Long) results.get(firstIndexReply + 2 * i + 1));
+                        }
+                        return updatedCart;
                     }
                 });
 
-                // If results is not empty, transaction succeeded
-                if (results != null && !results.isEmpty()) {
-                    // We need to return the cart state that was just saved.
-                    // Since 'modifier' is side-effect free on the input (ideally), re-running it or capturing it is fine.
-                    // For simplicity, we'll fetch or reconstruct.
-                    // Better pattern: Capture the result from the modifier in the callback scope or return it via results?
-                    // The modifier changed the object reference passed to SET.
-                    // We can just return the result of a fresh fetch or the object we constructed.
-                    // Since we need the *result* of the modifier:
-                    return findByUserId(userId).orElse(new Cart());
-                }
-
-                // If execution failed (results is null/empty), loop and RETRY (Step 7)
-
             } catch (Exception e) {
                 // Log and throw or retry depending on error type
                 throw new RuntimeException("Failed to update cart", e);
             }
+
+            // If committed, transaction succeeded and the in-memory cart is exactly what was written
+            if (committed != null) {
+                cartCache.invalidate(userId);
+                return committed;
+            }
+
+            // If execution failed (WATCH conflict), back off and RETRY until the budget is spent
+            if (attempt >= maxUpdateAttempts) {
+                throw new CartConcurrentModificationException(
+                        "Cart " + userId + " kept changing, gave up after " + attempt + " attempts");
+            }
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * Queues the index SADD/SREM (and the reverse index) for lines added to or removed from the cart.
+     *
+     * @return Number of queued commands, whose replies end the EXEC result
+     */
+    private static int queueIndexChanges(RedisOperations<?, ?> operations, String userId,
+                                         List<String> addedProducts, List<Integer> addedBucketCounts,
+                                         List<String> removedProducts, List<List<String>> removedIndexKeys) {
+        if (addedProducts.isEmpty() && removedProducts.isEmpty()) {
+            return 0;
         }
+        byte[] user = bytes(userId);
+        byte[] cartProductsKey = bytes(CART_PRODUCTS_PREFIX + userId);
+        Integer queued = operations.execute((RedisCallback<Integer>) connection -> {
+            int commands = 0;
+            for (int i = 0; i < addedProducts.size(); i++) {
+                byte[] indexKey = bytes(ProductIndexBuckets.key(addedProducts.get(i),
+                        ProductIndexBuckets.bucketOf(userId, addedBucketCounts.get(i))));
+                connection.setCommands().sAdd(indexKey, user);
+                connection.setCommands().sCard(indexKey);
+                commands += 2;
+            }
+            for (List<String> indexKeys : removedIndexKeys) {
+                for (String indexKey : indexKeys) {
+                    connection.setCommands().sRem(bytes(indexKey), user);
+                    commands++;
+                }
+            }
+            if (!addedProducts.isEmpty()) {
+                connection.setCommands().sAdd(cartProductsKey,
+                        addedProducts.stream().map(RedisCartRepository::bytes).toArray(byte[][]::new));
+                connection.keyCommands().expire(cartProductsKey, CART_PRODUCTS_TTL.toSeconds());
+                commands += 2;
+            }
+            if (!removedProducts.isEmpty()) {
+                connection.setCommands().sRem(cartProductsKey,
+                        removedProducts.stream().map(RedisCartRepository::bytes).toArray(byte[][]::new));
+                commands++;
+            }
+            return commands;
+        });
+        return queued != null ? queued : 0;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Full jitter: sleep a random time up to base * 2^(attempt - 1), capped
+    private void backOff(int attempt) {
+        long ceiling = Math.min(maxBackoff.toMillis(), baseBackoff.toMillis() << Math.min(attempt - 1, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying cart update", e);
+        }
+    }
+
+    // Redis answers WRONGTYPE when a hash command hits a cart still stored as a JSON string
+    private static boolean isLegacyDocument(DataAccessException e) {
+        String message = e.getMostSpecificCause().getMessage();
+        return message != null && message.startsWith("WRONGTYPE");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.bob.cartservice.service;
+
+import com.bob.cartservice.repository.FanOutProgress;
+import com.bob.cartservice.repository.IndexPage;
+import com.bob.cartservice.repository.RedisCartRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Streams a product index page by page (SSCAN) and hands every page to a batch action,
+ * so fan-out memory stays bounded by the page size however many carts hold the product.
+ * Index buckets are scanned in parallel, and each page is split by user stripe and applied in parallel
+ * by {@link CartFanOutExecutor}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CartFanOutEngine {
+
+    private final RedisCartRepository cartRepository;
+    private final CartFanOutExecutor fanOutExecutor;
+
+    @Value("${cart.fan-out.page-size:500}")
+    private int pageSize;
+
+    /**
+     * Applies {@code pageAction} to every user in the index of {@code productId}.
+     * <p>
+     * Every index bucket is scanned on its own virtual thread, and progress is checkpointed per bucket after
+     * each page. A redelivered event with the same fingerprint resumes every bucket from its last checkpoint
+     * (skipping finished ones); a different event for the same product starts from the beginning.
+     * The action must be idempotent, as SSCAN can return a user more than once, and thread-safe,
+     * as it runs concurrently for different stripes and buckets. Returns only once every page is applied.
+     *
+     * @param event Fingerprint of the change being applied (e.g. new price and inventory)
+     * @return Number of index entries visited
+     */
+    public long fanOut(String productId, String event, Consumer<List<String>> pageAction) {
+        int bucketCount = cartRepository.getIndexBucketCount(productId);
+
+        long visited = 0;
+        try (ExecutorService scanners = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Long>> buckets = new ArrayList<>(bucketCount);
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                int scanned = bucket;
+                buckets.add(scanners.submit(() -> fanOutBucket(productId, scanned, event, pageAction)));
+            }
+            for (Future<Long> bucket : buckets) {
+                visited += await(bucket);
+            }
+        }
+
+        cartRepository.clearFanOutProgress(productId, bucketCount);
+        return visited;
+    }
+
+    private long fanOutBucket(String productId, int bucket, String event, Consumer<List<String>> pageAction) {
+        Optional<FanOutProgress> saved = cartRepository.findFanOutProgress(productId, bucket)
+                .filter(progress -> progress.event().equals(event));
+        if (saved.map(FanOutProgress::isComplete).orElse(false)) {
+            return 0;
+        }
+
+        String cursor = saved.map(FanOutProgress::cursor).orElse(IndexPage.START);
+        if (!IndexPage.START.equals(cursor)) {
+            log.info("Resuming fan-out for product {} bucket {} from cursor {}", productId, bucket, cursor);
+        }
+
+        long visited = 0;
+        IndexPage page;
+        do {
+            page = cartRepository.scanUsersWithProduct(productId, bucket, cursor, pageSize);
+            if (!page.userIds().isEmpty()) {
+                fanOutExecutor.runStriped(page.userIds(), pageAction);
+                visited += page.userIds().size();
+            }
+
+            cursor = page.cursor();
+            // Saved for the last page too, so a resumed fan-out skips buckets that are already done
+            cartRepository.saveFanOutProgress(productId, bucket, new FanOutProgress(event, cursor));
+        } while (!page.isLast());
+
+        return visited;
+    }
+
+    private static long await(Future<Long> bucket) {
+        try {
+            return bucket.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Fan-out bucket failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for fan-out", e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.bob.cartservice.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Runs per-user cart updates of a fan-out in parallel on virtual threads.
+ * <p>
+ * Users are striped over a fixed set of lanes by userId. Each lane runs one task at a time, so two updates
+ * to the same cart (even from different product events) never run concurrently, while different carts
+ * proceed in parallel. A semaphore caps how many Redis batches are in flight across all lanes.
+ */
+@Component
+@Slf4j
+public class CartFanOutExecutor {
+
+    private final List<ExecutorService> lanes;
+    private final Semaphore inFlight;
+
+    public CartFanOutExecutor(@Value("${cart.fan-out.stripes:64}") int stripes,
+                              @Value("${cart.fan-out.max-in-flight:16}") int maxInFlight) {
+        this.lanes = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            lanes.add(Executors.newSingleThreadExecutor(Thread.ofVirtual().name("cart-fan-out-" + i + "-", 0).factory()));
+        }
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Splits {@code userIds} by stripe, runs {@code batchAction} on every stripe's users in parallel
+     * and returns once all of them have finished.
+     *
+     * @throws RuntimeException the first failure of any stripe, after all stripes have finished
+     */
+    public void runStriped(List<String> userIds, Consumer<List<String>> batchAction) {
+        List<List<String>> stripes = new ArrayList<>(lanes.size());
+        for (int i = 0; i < lanes.size(); i++) {
+            stripes.add(new ArrayList<>());
+        }
+        for (String userId : userIds) {
+            stripes.get(Math.floorMod(userId.hashCode(), lanes.size())).add(userId);
+        }
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < stripes.size(); i++) {
+            List<String> stripe = stripes.get(i);
+            if (stripe.isEmpty()) {
+                continue;
+            }
+            tasks.add(CompletableFuture.runAsync(() -> {
+                inFlight.acquireUninterruptibly();
+                try {
+                    batchAction.accept(stripe);
+                } finally {
+                    inFlight.release();
+                }
+            }, lanes.get(i)));
+        }
+
+        try {
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down {} cart fan-out lanes", lanes.size());
+        lanes.forEach(ExecutorService::shutdown);
+    }
+}
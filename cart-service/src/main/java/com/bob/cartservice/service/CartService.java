@@ -3,9 +3,13 @@ package com.bob.cartservice.service;
 import com.bob.cartservice.dto.AddToCartRequestDTO;
 import com.bob.cartservice.dto.CartResponseDTO;
 
+import java.util.List;
+
 public interface CartService {
     CartResponseDTO addItemToCart(String userId, AddToCartRequestDTO request);
 
+    CartResponseDTO addItemsToCart(String userId, List<AddToCartRequestDTO> requests);
+
     CartResponseDTO getCart(String userId);
 
     CartResponseDTO removeItemFromCart(String userId, String productId);
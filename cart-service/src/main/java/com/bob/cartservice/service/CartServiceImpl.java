@@ -2,22 +2,27 @@ package com.bob.cartservice.service;
 
 import com.bob.cartservice.dto.AddToCartRequestDTO;
 import com.bob.cartservice.dto.CartResponseDTO;
+import com.bob.cartservice.exception.CartConcurrentModificationException;
 import com.bob.cartservice.exception.CartValidationException;
 import com.bob.cartservice.exception.ResourceNotFoundException;
 import com.bob.cartservice.grpc.ProductGrpcClient;
 import com.bob.cartservice.model.Cart;
 import com.bob.cartservice.model.CartItem;
+import com.bob.cartservice.model.MinorUnits;
+import com.bob.cartservice.repository.CartMutation;
+import com.bob.cartservice.repository.ProductSnapshot;
 import com.bob.cartservice.repository.RedisCartRepository;
 import com.bob.product.proto.CartItemRequest;
 import com.bob.product.proto.CartItemValidationResult;
+import com.bob.product.proto.Money;
 import com.bob.product.proto.Product;
-import com.bob.product.proto.ValidateCartItemsResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @RequiredArgsConstructor
@@ -26,73 +31,103 @@ public class CartServiceImpl implements CartService {
 
     private final RedisCartRepository cartRepository;
     private final ProductGrpcClient productGrpcClient;
+    private final CartFanOutEngine fanOutEngine;
+    private final ProductCatalogCache productCatalog;
+    private final ProductCatalogReplica catalogReplica;
+
+    // Prefetch/commit rounds for checkout validation before giving up on a cart that keeps changing
+    private static final int MAX_VALIDATION_ROUNDS = 3;
+
+    // Lazy repricing: product updates only record a snapshot, and carts catch up when they are read
+    @Value("${cart.repricing.lazy:false}")
+    private boolean lazyRepricing;
 
     @Override
     public CartResponseDTO addItemToCart(String userId, AddToCartRequestDTO request) {
-        // Use atomic updateCart (Optimistic Locking)
-        Cart updatedCart = cartRepository.updateCart(userId, cart -> {
-            if (cart.getUserId() == null) {
-                cart.setUserId(userId);
+        // Atomic script: adds to the existing line, or reports that the product snapshot is needed
+        CartMutation mutation = cartRepository.addItem(userId, request.getProductId(), request.getQuantity(), null);
+
+        if (mutation.status() == CartMutation.Status.ITEM_MISSING) {
+            // Priced from the local catalog replica when it has the product as active, otherwise from Product Service
+            CartItem newItem = catalogReplica.find(request.getProductId())
+                    .filter(ProductCatalogReplica.Listing::active)
+                    .map(listing -> toCartItem(request.getProductId(), listing, request.getQuantity()))
+                    .orElseGet(() -> fetchCartItem(request.getProductId(), request.getQuantity()));
+
+            // Inserts the line and indexes it in the same script
+            mutation = cartRepository.addItem(userId, request.getProductId(), request.getQuantity(), newItem);
+        }
+
+        return mapToResponse(mutation.cart());
+    }
+
+    @Override
+    public CartResponseDTO addItemsToCart(String userId, List<AddToCartRequestDTO> requests) {
+        // 1. Merge repeated products into one line each
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (AddToCartRequestDTO request : requests) {
+            quantities.merge(request.getProductId(), request.getQuantity(), Integer::sum);
+        }
+
+        // 2. Resolve every product in one ListProducts call (no Redis state is held meanwhile)
+        Map<String, ProductSnapshot> snapshots = findSnapshots(quantities.keySet());
+        // ListProducts rejects an empty ID list, so skip the call
+        Map<String, Product> products = new HashMap<>();
+        if (!quantities.isEmpty()) {
+            for (Product product : productGrpcClient.listProducts(new ArrayList<>(quantities.keySet())).getProductsList()) {
+                products.put(product.getId(), product);
+                productCatalog.put(product);
             }
+        }
+        List<String> missing = quantities.keySet().stream()
+                .filter(productId -> !products.containsKey(productId))
+                .toList();
+        if (!missing.isEmpty()) {
+            throw new ResourceNotFoundException("Products not found: " + missing);
+        }
 
-            // Check if item exists in cart
-            Optional<CartItem> existingItem = cart.getItems().stream()
-                    .filter(item -> item.getProductId().equals(request.getProductId()))
-                    .findFirst();
-
-            if (existingItem.isPresent()) {
-                CartItem item = existingItem.get();
-                item.setQuantity(item.getQuantity() + request.getQuantity());
-            } else {
-                // Fetch product details from Product Service via gRPC
-                // Note: In optimistic locking, this might happen multiple times if retried
-                Product productProto = productGrpcClient.getProduct(request.getProductId());
-
-                CartItem newItem = new CartItem();
-                newItem.setProductId(productProto.getId());
-                newItem.setName(productProto.getName());
-                newItem.setBrand(productProto.getBrand());
-                // Proto sends price as String, convert to BigDecimal
-                newItem.setPrice(new BigDecimal(productProto.getPrice()));
-                newItem.setQuantity(request.getQuantity());
-                newItem.setAvailable(productProto.getInventory() > 0);
-
-                cart.getItems().add(newItem);
-
-                // Add to Index (Idempotent)
-                cartRepository.addProductToCartIndex(request.getProductId(), userId);
+        // 3. Apply every line in one cart commit, which also indexes the new lines
+        Cart cart = cartRepository.updateCart(userId, current -> {
+            Map<String, CartItem> lines = new HashMap<>();
+            for (CartItem item : current.getItems()) {
+                lines.put(item.getProductId(), item);
             }
 
-            calculateTotals(cart);
-            return cart;
+            for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+                CartItem existing = lines.get(entry.getKey());
+                if (existing != null) {
+                    existing.setQuantity(existing.getQuantity() + entry.getValue());
+                } else {
+                    CartItem item = toCartItem(products.get(entry.getKey()), entry.getValue());
+                    stampSnapshot(item, snapshots);
+                    current.getItems().add(item);
+                }
+            }
+
+            calculateTotals(current);
+            return current;
         });
 
-        return mapToResponse(updatedCart);
+        return mapToResponse(cart);
     }
 
     @Override
     public CartResponseDTO getCart(String userId) {
-        Cart cart = cartRepository.findByUserId(userId)
+        Cart cart = cartRepository.findCachedByUserId(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("Cart not found"));
-        cart.setUserId(userId);
-        return mapToResponse(cart);
+        if (lazyRepricing) {
+            cart = repriceStaleLines(userId, cart);
+        }
+        // The cart may be the cached instance shared with other readers, so it is not modified here
+        return mapToResponse(userId, cart);
     }
 
     @Override
     public CartResponseDTO removeItemFromCart(String userId, String productId) {
-        Cart updatedCart = cartRepository.updateCart(userId, cart -> {
-            boolean removed = cart.getItems().removeIf(item -> item.getProductId().equals(productId));
-
-            if (removed) {
-                // Remove from Index
-                cartRepository.removeProductFromCartIndex(productId, userId);
-            }
-
-            calculateTotals(cart);
-            return cart;
-        });
+        // The script drops the line and its index entry together
+        CartMutation mutation = cartRepository.removeItem(userId, productId);
 
-        return mapToResponse(updatedCart);
+        return mapToResponse(mutation.cart());
     }
 
     @Override
@@ -103,102 +138,114 @@ public class CartServiceImpl implements CartService {
     // METHOD called by KafkaConsumer (Concurrent Updates handled)
     @Override
     public void handleProductUpdate(com.bob.product.proto.Product event) {
-        // 1. Find all users who have this product in their cart
-        Set<String> userIds = cartRepository.getUsersWithProduct(event.getId());
+        long newPrice = unitPrice(event.hasUnitPrice(), event.getUnitPrice(), event.getPrice());
 
-        for (String userId : userIds) {
-            cartRepository.updateCart(userId, cart -> {
-                boolean changed = false;
-                BigDecimal newPrice = new BigDecimal(event.getPrice());
-                int newInventory = event.getInventory();
+        // Recorded in eager mode too, so switching to lazy mode never reprices from an outdated snapshot
+        long version = cartRepository.recordProductSnapshot(event.getId(), newPrice, event.getInventory());
+        if (lazyRepricing) {
+            log.info("Recorded snapshot {} of product {}, carts are repriced when read", version, event.getId());
+            return;
+        }
 
-                Iterator<CartItem> iterator = cart.getItems().iterator();
-                while (iterator.hasNext()) {
-                    CartItem item = iterator.next();
-                    if (item.getProductId().equals(event.getId())) {
+        String fingerprint = newPrice + "|" + event.getInventory();
 
-                        // Logic: Remove if out of stock
-                        if (newInventory < item.getQuantity()) {
-                            iterator.remove();
-                            cartRepository.removeProductFromCartIndex(event.getId(), userId);
-                            changed = true;
-                        }
-                        // Logic: Update Price
-                        else if (item.getPrice().compareTo(newPrice) != 0) {
-                            item.setPrice(newPrice);
-                            changed = true;
-                        }
-                    }
-                }
+        // Walk the users who have this product in their cart, one pipelined page at a time
+        long visited = fanOutEngine.fanOut(event.getId(), fingerprint, userIds -> {
+            // Atomic script per cart: remove (and unindex) if out of stock, otherwise update price
+            cartRepository.repriceItems(userIds, event.getId(), newPrice, event.getInventory());
+        });
 
-                if (changed) {
-                    calculateTotals(cart);
-                }
-                return cart;
-            });
-        }
+        log.info("Applied update of product {} to {} indexed carts", event.getId(), visited);
     }
 
     // Method to handle checkout validation
     @Override
     public CartResponseDTO validateCartForCheckout(String userId) {
-        // List to capture invalid items during the atomic update
-        // We clear this at the start of the lambda to handle retries correctly
+        // Invalid items removed by every committed round, reported to the user at the end
         List<String> invalidItemIds = new ArrayList<>();
-
-        Cart updatedCart = cartRepository.updateCart(userId, cart -> {
-            invalidItemIds.clear(); // Reset for retry
-
-            if (cart.getItems().isEmpty()) {
-                return cart; // Empty cart is valid (or handle as exception outside)
+        // Set when the cart holds lines the prefetched validation did not cover
+        AtomicBoolean stale = new AtomicBoolean();
+        Cart updatedCart = null;
+
+        for (int round = 1; round <= MAX_VALIDATION_ROUNDS; round++) {
+            // 1. Prefetch phase: validate the current lines before touching the optimistic lock
+            Cart snapshot = cartRepository.findByUserId(userId).orElse(null);
+            if (snapshot == null || snapshot.getItems().isEmpty()) {
+                throw new ResourceNotFoundException("Cart is empty");
             }
 
-            // 1. Prepare Request for gRPC
-            List<CartItemRequest> protoItems = cart.getItems().stream()
-                    .map(item -> CartItemRequest.newBuilder()
-                            .setProductId(item.getProductId())
-                            .setQuantity(item.getQuantity())
-                            .build())
-                    .toList();
+            Map<String, Integer> validatedQuantities = new HashMap<>();
+            List<CartItemRequest> protoItems = new ArrayList<>();
+            for (CartItem item : snapshot.getItems()) {
+                validatedQuantities.put(item.getProductId(), item.getQuantity());
+                protoItems.add(CartItemRequest.newBuilder()
+                        .setProductId(item.getProductId())
+                        .setQuantity(item.getQuantity())
+                        .build());
+            }
 
-            // 2. Call Product Service
-            ValidateCartItemsResponse response = productGrpcClient.validateCartItems(protoItems);
+            // Read before the validation call: lines it reprices are current as of at least these snapshots
+            Map<String, ProductSnapshot> snapshots = findSnapshots(validatedQuantities.keySet());
 
-            // 3. Process Results
-            boolean cartChanged = false;
+            // 2. Call Product Service, always: the local catalog replica may lag, so checkout never trusts it
+            //    (results are reused if the commit below has to retry)
+            Map<String, CartItemValidationResult> results = new HashMap<>();
+            for (CartItemValidationResult result : productGrpcClient.validateCartItems(protoItems).getResultsList()) {
+                results.put(result.getProductId(), result);
+            }
 
-            for (CartItemValidationResult result : response.getResultsList()) {
-                String productId = result.getProductId();
+            // 3. Commit phase: apply the results to whatever the cart holds now.
+            //    Removals are collected per round: a WATCH retry discards them, a commit keeps them.
+            List<String> removedThisRound = new ArrayList<>();
+            updatedCart = cartRepository.updateCart(userId, cart -> {
+                removedThisRound.clear(); // Reset for a WATCH retry, which did not commit
+                stale.set(false);
+                boolean cartChanged = false;
 
-                Optional<CartItem> cartItemOpt = cart.getItems().stream()
-                        .filter(i -> i.getProductId().equals(productId))
-                        .findFirst();
+                Iterator<CartItem> iterator = cart.getItems().iterator();
+                while (iterator.hasNext()) {
+                    CartItem item = iterator.next();
+                    String productId = item.getProductId();
+                    CartItemValidationResult result = results.get(productId);
 
-                if (cartItemOpt.isPresent()) {
-                    CartItem item = cartItemOpt.get();
+                    // Line added or changed since the prefetch: validate it in the next round
+                    if (result == null || !Objects.equals(validatedQuantities.get(productId), item.getQuantity())) {
+                        stale.set(true);
+                        continue;
+                    }
 
                     if (!result.getValid()) {
                         // Invalid -> Remove
-                        cart.getItems().remove(item);
-                        cartRepository.removeProductFromCartIndex(productId, userId);
+                        iterator.remove();
                         cartChanged = true;
-                        invalidItemIds.add(productId + " (" + result.getMessage() + ")");
+                        removedThisRound.add(productId + " (" + result.getMessage() + ")");
                     } else {
                         // Valid -> Check Price
-                        BigDecimal currentPrice = new BigDecimal(result.getCurrentPrice());
-                        if (item.getPrice().compareTo(currentPrice) != 0) {
-                            item.setPrice(currentPrice);
+                        long currentPrice = unitPrice(result.hasCurrentUnitPrice(),
+                                result.getCurrentUnitPrice(), result.getCurrentPrice());
+                        if (item.getPriceMinor() != currentPrice) {
+                            item.setPriceMinor(currentPrice);
                             cartChanged = true;
                         }
+                        cartChanged |= stampSnapshot(item, snapshots);
                     }
                 }
-            }
 
-            if (cartChanged) {
-                calculateTotals(cart);
+                if (cartChanged) {
+                    calculateTotals(cart);
+                }
+                return cart;
+            });
+            invalidItemIds.addAll(removedThisRound);
+
+            if (!stale.get()) {
+                break;
             }
-            return cart;
-        });
+        }
+
+        if (stale.get()) {
+            throw new CartConcurrentModificationException("Cart kept changing during checkout validation");
+        }
 
         // 4. Post-transaction check
         // If invalid items were found, the cart was updated and saved.
@@ -219,47 +266,147 @@ public class CartServiceImpl implements CartService {
     // Method to handle Product Deletion Event
     @Override
     public void handleProductDeletion(String productId) {
-        // 1. Use Index to find relevant users
-        Set<String> userIds = cartRepository.getUsersWithProduct(productId);
+        // 1. Use Index to find relevant users, page by page
+        long visited = fanOutEngine.fanOut(productId, "DELETED",
+                userIds -> cartRepository.removeItems(userIds, productId));
 
-        log.info("Removing deleted product {} from {} active carts", productId, userIds.size());
+        // 2. The product is gone, so its whole index (and snapshot) can go at once
+        cartRepository.deleteProductIndex(productId);
+        cartRepository.deleteProductSnapshot(productId);
 
-        for (String userId : userIds) {
-            cartRepository.updateCart(userId, cart -> {
-                boolean removed = cart.getItems().removeIf(item -> item.getProductId().equals(productId));
+        log.info("Removed deleted product {} from {} indexed carts", productId, visited);
+    }
 
-                if (removed) {
-                    calculateTotals(cart);
-                    // Clean up the index for this specific user/product pair
-                    cartRepository.removeProductFromCartIndex(productId, userId);
+    // --- Helper Methods ---
+
+    /**
+     * Lazy repricing: applies the product snapshots newer than the price of a line, like the eager fan-out
+     * would have (drop the line if inventory no longer covers it, otherwise update its price).
+     * Carts without stale lines are returned as they are, without a write.
+     */
+    private Cart repriceStaleLines(String userId, Cart cart) {
+        Map<String, ProductSnapshot> snapshots = findSnapshots(
+                cart.getItems().stream().map(CartItem::getProductId).toList());
+        if (cart.getItems().stream().noneMatch(item -> isStale(item, snapshots))) {
+            return cart;
+        }
+
+        return cartRepository.updateCart(userId, current -> {
+            boolean cartChanged = false;
+            Iterator<CartItem> iterator = current.getItems().iterator();
+            while (iterator.hasNext()) {
+                CartItem item = iterator.next();
+                // Lines added or repriced since the snapshots were read are no longer stale
+                if (!isStale(item, snapshots)) {
+                    continue;
                 }
-                return cart;
-            });
+                ProductSnapshot snapshot = snapshots.get(item.getProductId());
+                if (snapshot.inventory() < item.getQuantity()) {
+                    iterator.remove();
+                } else {
+                    item.setPriceMinor(snapshot.priceMinor());
+                    item.setSnapshotVersion(snapshot.version());
+                }
+                cartChanged = true;
+            }
+
+            if (cartChanged) {
+                calculateTotals(current);
+            }
+            return current;
+        });
+    }
+
+    private Map<String, ProductSnapshot> findSnapshots(Collection<String> productIds) {
+        return lazyRepricing ? cartRepository.findProductSnapshots(productIds) : Map.of();
+    }
+
+    private static boolean isStale(CartItem item, Map<String, ProductSnapshot> snapshots) {
+        ProductSnapshot snapshot = snapshots.get(item.getProductId());
+        return snapshot != null && snapshot.isNewerThan(item);
+    }
+
+    // Marks a line priced from product-service as current as of the snapshot read before the call
+    private static boolean stampSnapshot(CartItem item, Map<String, ProductSnapshot> snapshots) {
+        ProductSnapshot snapshot = snapshots.get(item.getProductId());
+        if (snapshot == null || !snapshot.isNewerThan(item)) {
+            return false;
         }
+        item.setSnapshotVersion(snapshot.version());
+        return true;
     }
 
-    // --- Helper Methods ---
+    private CartItem fetchCartItem(String productId, int quantity) {
+        // Snapshot version is read before the fetch, so an update racing with it still reprices the line later
+        Map<String, ProductSnapshot> snapshots = findSnapshots(List.of(productId));
+
+        // Fetch product details from Product Service via gRPC (no Redis state is held meanwhile)
+        Product productProto = productGrpcClient.getProduct(productId);
+        productCatalog.put(productProto);
+
+        CartItem item = toCartItem(productProto, quantity);
+        stampSnapshot(item, snapshots);
+        return item;
+    }
+
+    // Not stamped with a snapshot version: the replica may trail the update topic, lazy repricing catches it up
+    private static CartItem toCartItem(String productId, ProductCatalogReplica.Listing listing, int quantity) {
+        CartItem item = new CartItem();
+        item.setProductId(productId);
+        item.setPriceMinor(listing.priceMinor());
+        item.setQuantity(quantity);
+        item.setAvailable(listing.inventory() > 0);
+        return item;
+    }
+
+    private CartItem toCartItem(Product productProto, int quantity) {
+        CartItem item = new CartItem();
+        item.setProductId(productProto.getId());
+        item.setName(productProto.getName());
+        item.setBrand(productProto.getBrand());
+        item.setPriceMinor(unitPrice(productProto.hasUnitPrice(), productProto.getUnitPrice(), productProto.getPrice()));
+        item.setQuantity(quantity);
+        item.setAvailable(productProto.getInventory() > 0);
+        return item;
+    }
+
+    // Prefers the minor-unit Money field; falls back to the decimal string sent by older product-service versions
+    static long unitPrice(boolean hasMoney, Money money, String legacyPrice) {
+        if (!hasMoney) {
+            return MinorUnits.parse(legacyPrice);
+        }
+        if (!MinorUnits.DEFAULT_CURRENCY.equals(money.getCurrency())) {
+            throw new IllegalStateException("Unsupported currency " + money.getCurrency());
+        }
+        return money.getUnits();
+    }
 
     private void calculateTotals(Cart cart) {
         int totalQty = 0;
-        BigDecimal totalAmt = BigDecimal.ZERO;
+        long totalAmt = 0;
 
         for (CartItem item : cart.getItems()) {
             totalQty += item.getQuantity();
-            BigDecimal itemTotal = item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity()));
-            totalAmt = totalAmt.add(itemTotal);
+            totalAmt = Math.addExact(totalAmt, Math.multiplyExact(item.getPriceMinor(), item.getQuantity()));
         }
 
         cart.setTotalQuantity(totalQty);
-        cart.setTotalAmount(totalAmt);
+        cart.setTotalAmountMinor(totalAmt);
     }
 
     private CartResponseDTO mapToResponse(Cart cart) {
+        return mapToResponse(cart.getUserId(), cart);
+    }
+
+    private CartResponseDTO mapToResponse(String userId, Cart cart) {
         return CartResponseDTO.builder()
-                .userId(cart.getUserId())
-                .items(cart.getItems())
+                .userId(userId)
+                // Lines only store id, quantity and price; display fields come from the catalog cache
+                .items(productCatalog.hydrate(cart.getItems()))
                 .totalAmount(cart.getTotalAmount())
+                .currency(cart.getCurrency())
                 .totalQuantity(cart.getTotalQuantity())
+                .version(cart.getVersion())
                 .build();
     }
 }
\ No newline at end of file
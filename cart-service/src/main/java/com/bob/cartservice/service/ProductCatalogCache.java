@@ -0,0 +1,129 @@
+package com.bob.cartservice.service;
+
+import com.bob.cartservice.grpc.ProductGrpcClient;
+import com.bob.cartservice.model.CartItem;
+import com.bob.product.proto.Product;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Bounded in-process cache of product display fields, so carts only store productId, quantity and price.
+ * <p>
+ * Filled on miss with one ListProducts call per hydrated cart, and kept current from the product topics
+ * (every replica consumes them, see {@link com.bob.cartservice.kafka.KafkaConsumer}). Only cached products
+ * are refreshed by events, so the cache holds what carts are actually showing.
+ */
+@Component
+@Slf4j
+public class ProductCatalogCache {
+
+    /**
+     * Display fields of a product.
+     */
+    public record Entry(String name, String brand, boolean available) {
+
+        static Entry of(Product product) {
+            return new Entry(product.getName(), product.getBrand(), product.getInventory() > 0);
+        }
+    }
+
+    private final ProductGrpcClient productGrpcClient;
+    private final Map<String, Entry> entries;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public ProductCatalogCache(ProductGrpcClient productGrpcClient,
+                               MeterRegistry meterRegistry,
+                               @Value("${cart.catalog.max-size:50000}") int maxSize) {
+        this.productGrpcClient = productGrpcClient;
+        // Access-ordered, so the least recently shown product is evicted first
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        });
+
+        this.hits = Counter.builder("cart.catalog.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("cart.catalog.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("cart.catalog.size", entries, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Copies of the lines with name, brand and availability filled in from the cache.
+     * Lines whose product cannot be loaded keep whatever the cart row had (older rows still carry a snapshot).
+     */
+    public List<CartItem> hydrate(List<CartItem> items) {
+        Map<String, Entry> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (CartItem item : items) {
+            Entry entry = entries.get(item.getProductId());
+            if (entry != null) {
+                found.put(item.getProductId(), entry);
+            } else {
+                missing.add(item.getProductId());
+            }
+        }
+        hits.increment(found.size());
+        misses.increment(missing.size());
+
+        if (!missing.isEmpty()) {
+            try {
+                for (Product product : productGrpcClient.listProducts(missing).getProductsList()) {
+                    found.put(product.getId(), put(product));
+                }
+            } catch (StatusRuntimeException e) {
+                // Display fields are not worth failing the cart read for
+                log.warn("Could not load {} products for cart display: {}", missing.size(), e.getStatus());
+            }
+        }
+
+        List<CartItem> hydrated = new ArrayList<>(items.size());
+        for (CartItem item : items) {
+            CartItem copy = copyOf(item);
+            Entry entry = found.get(item.getProductId());
+            if (entry != null) {
+                copy.setName(entry.name());
+                copy.setBrand(entry.brand());
+                copy.setAvailable(entry.available());
+            }
+            hydrated.add(copy);
+        }
+        return hydrated;
+    }
+
+    public Entry put(Product product) {
+        Entry entry = Entry.of(product);
+        entries.put(product.getId(), entry);
+        return entry;
+    }
+
+    public void onProductUpdated(Product product) {
+        entries.computeIfPresent(product.getId(), (id, entry) -> Entry.of(product));
+    }
+
+    public void onProductDeleted(String productId) {
+        entries.remove(productId);
+    }
+
+    private static CartItem copyOf(CartItem item) {
+        CartItem copy = new CartItem();
+        copy.setProductId(item.getProductId());
+        copy.setQuantity(item.getQuantity());
+        copy.setPriceMinor(item.getPriceMinor());
+        copy.setSnapshotVersion(item.getSnapshotVersion());
+        copy.setName(item.getName());
+        copy.setBrand(item.getBrand());
+        copy.setImageUrl(item.getImageUrl());
+        copy.setAvailable(item.isAvailable());
+        return copy;
+    }
+}
@@ -0,0 +1,142 @@
+package com.bob.cartservice.service;
+
+import com.bob.product.proto.Product;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local replica of the price, inventory and active flag of every product, fed by the compacted
+ * {@code product.snapshot} topic. Each replica reads the topic from the start in its own group, so the
+ * compacted log bootstraps it at startup; it is only used once it has caught up ({@link #isReady}).
+ * <p>
+ * Only what add-to-cart needs is kept, keyed by the product UUID, so a large catalog stays a few dozen bytes
+ * per product. Add-to-cart only prices active listings from it; inactive ones go to product-service as before. Checkout never validates from it: the replica may lag, so that check always goes to product-service.
+ */
+@Component
+@Slf4j
+public class ProductCatalogReplica {
+
+    static final String LISTENER_ID = "catalog-replica";
+    private static final String SNAPSHOT_TOPIC = "product.snapshot";
+
+    /**
+     * Replicated state of one product.
+     */
+    public record Listing(long priceMinor, int inventory, boolean active) {
+    }
+
+    private final boolean enabled;
+    private final Map<UUID, Listing> listings = new ConcurrentHashMap<>();
+    // Records between the replica and the end of the topic; -1 until known
+    private final AtomicLong lag = new AtomicLong(-1);
+    private volatile boolean ready;
+
+    public ProductCatalogReplica(MeterRegistry meterRegistry,
+                                 @Value("${cart.catalog.replica.enabled:false}") boolean enabled) {
+        this.enabled = enabled;
+        Gauge.builder("cart.catalog.replica.size", listings, Map::size)
+                .description("Products held by the local catalog replica")
+                .register(meterRegistry);
+        Gauge.builder("cart.catalog.replica.lag", lag, AtomicLong::get)
+                .description("Snapshot records the local catalog replica is behind, -1 while unknown")
+                .register(meterRegistry);
+        Gauge.builder("cart.catalog.replica.ready", this, replica -> replica.isReady() ? 1 : 0)
+                .register(meterRegistry);
+    }
+
+    // Never acknowledged (ack-mode is manual): the throwaway group commits no offsets, so Kafka drops it
+    // once this replica stops, and every start rebuilds from the beginning of the topic anyway
+    @KafkaListener(id = LISTENER_ID, topics = SNAPSHOT_TOPIC, groupId = "cart-catalog-replica-${random.uuid}",
+            autoStartup = "${cart.catalog.replica.enabled:false}", batch = "true",
+            properties = "auto.offset.reset=earliest")
+    public void apply(List<ConsumerRecord<String, byte[]>> records, Consumer<?, ?> consumer) {
+        for (ConsumerRecord<String, byte[]> record : records) {
+            try {
+                if (record.value() == null) {
+                    // Tombstone: the product was deleted
+                    listings.remove(UUID.fromString(record.key()));
+                } else {
+                    Product product = Product.parseFrom(record.value());
+                    applySnapshot(product);
+                }
+            } catch (InvalidProtocolBufferException | IllegalArgumentException e) {
+                log.error("Skipping unreadable product snapshot at offset {}", record.offset(), e);
+            }
+        }
+        updateLag(consumer);
+    }
+
+    // No records for a while: the replica is at the end of the topic (also covers an empty topic)
+    @EventListener(condition = "event.listenerId.startsWith('" + LISTENER_ID + "')")
+    public void onIdle(ListenerContainerIdleEvent event) {
+        lag.set(0);
+        markReady();
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * The replicated product, if the replica is ready and holds it.
+     */
+    public Optional<Listing> find(String productId) {
+        if (!isReady()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(listings.get(UUID.fromString(productId)));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private void applySnapshot(Product product) {
+        UUID id = UUID.fromString(product.getId());
+        try {
+            // Same price and currency rules as a product fetched from product-service
+            long price = CartServiceImpl.unitPrice(product.hasUnitPrice(), product.getUnitPrice(), product.getPrice());
+            listings.put(id, new Listing(price, product.getInventory(), product.getActive()));
+        } catch (IllegalStateException e) {
+            // Not held, so add-to-cart goes to product-service and fails there like any other unsupported price
+            listings.remove(id);
+            log.warn("Not replicating product {}: {}", product.getId(), e.getMessage());
+        }
+    }
+
+    private void updateLag(Consumer<?, ?> consumer) {
+        long total = 0;
+        for (TopicPartition partition : consumer.assignment()) {
+            OptionalLong partitionLag = consumer.currentLag(partition);
+            if (partitionLag.isEmpty()) {
+                return;
+            }
+            total += partitionLag.getAsLong();
+        }
+        lag.set(total);
+        if (total == 0) {
+            markReady();
+        }
+    }
+
+    private void markReady() {
+        if (!ready) {
+            ready = true;
+            log.info("Catalog replica caught up with {} products", listings.size());
+        }
+    }
+}
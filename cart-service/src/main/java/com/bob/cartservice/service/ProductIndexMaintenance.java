@@ -0,0 +1,179 @@
+package com.bob.cartservice.service;
+
+import com.bob.cartservice.repository.IndexPage;
+import com.bob.cartservice.repository.KeyScanPage;
+import com.bob.cartservice.repository.RedisCartRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the product index free of users whose cart no longer exists.
+ * <ul>
+ *   <li>{@link RedisCartRepository#delete} drops the index entries in the same transaction as the cart.</li>
+ *   <li>Expired (and externally deleted) carts are cleaned up from Redis keyspace notifications of the cart
+ *       database. Only {@code cart:} keys are queued, to a bounded pool; when it is full they are left to the sweep.</li>
+ *   <li>A periodic sweep removes whatever the notifications missed (pub/sub is fire-and-forget),
+ *       a few index keys per run, resuming where the previous run stopped.</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ProductIndexMaintenance {
+
+    private static final String CART_PREFIX = "cart:";
+    private static final String SWEEP = "product-index";
+    // Keyevent notifications (E) for generic commands such as DEL (g) and for expiries (x)
+    private static final String REQUIRED_EVENT_FLAGS = "Egx";
+
+    private final RedisCartRepository cartRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final Counter purgedCarts;
+    private final Counter droppedEvents;
+    private final Counter removedOrphans;
+    private final ThreadPoolExecutor purgeExecutor;
+
+    @Value("${cart.index.expiry-events.enabled:true}")
+    private boolean expiryEventsEnabled;
+
+    // Turn on notify-keyspace-events at startup; disable where CONFIG is not allowed and set it on the server instead
+    @Value("${cart.index.expiry-events.configure-redis:true}")
+    private boolean configureRedis;
+
+    @Value("${spring.data.redis.database:0}")
+    private int database;
+
+    @Value("${cart.index.sweep.keys-per-run:100}")
+    private int keysPerRun;
+
+    @Value("${cart.index.sweep.page-size:500}")
+    private int pageSize;
+
+    @Value("${cart.index.sweep.interval:5m}")
+    private Duration sweepInterval;
+
+    public ProductIndexMaintenance(RedisCartRepository cartRepository,
+                                   StringRedisTemplate stringRedisTemplate,
+                                   RedisMessageListenerContainer listenerContainer,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${cart.index.expiry-events.threads:2}") int threads,
+                                   @Value("${cart.index.expiry-events.queue-capacity:10000}") int queueCapacity) {
+        this.cartRepository = cartRepository;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.purgedCarts = Counter.builder("cart.index.purged.carts")
+                .description("Expired or deleted carts whose index entries were dropped from keyspace events")
+                .register(meterRegistry);
+        this.droppedEvents = Counter.builder("cart.index.events.dropped")
+                .description("Gone carts not purged from keyspace events because the purge queue was full")
+                .register(meterRegistry);
+        this.purgeExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cart-index-purge");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> droppedEvents.increment());
+        this.removedOrphans = Counter.builder("cart.index.sweep.removed")
+                .description("Orphan index entries removed by the periodic sweep")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void subscribe() {
+        if (!expiryEventsEnabled) {
+            return;
+        }
+        if (configureRedis) {
+            enableKeyspaceEvents();
+        }
+        // Only the database carts live in; keyevent channels carry the key name as the message
+        listenerContainer.addMessageListener((message, pattern) -> {
+                    String key = new String(message.getBody(), StandardCharsets.UTF_8);
+                    if (key.startsWith(CART_PREFIX)) {
+                        purgeExecutor.execute(() -> onCartGone(key));
+                    }
+                },
+                List.of(new ChannelTopic("__keyevent@" + database + "__:expired"),
+                        new ChannelTopic("__keyevent@" + database + "__:del")));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        purgeExecutor.shutdownNow();
+    }
+
+    private void onCartGone(String key) {
+        try {
+            cartRepository.purgeIndexOfMissingCart(key.substring(CART_PREFIX.length()));
+            purgedCarts.increment();
+        } catch (RuntimeException e) {
+            // The sweep picks it up later
+            log.warn("Failed to drop index entries of {}", key, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cart.index.sweep.interval:5m}", initialDelayString = "${cart.index.sweep.interval:5m}")
+    public void sweep() {
+        // One replica per interval; the lease simply expires, there is nothing to release
+        if (!cartRepository.tryAcquireLease(SWEEP, sweepInterval)) {
+            return;
+        }
+
+        String cursor = cartRepository.findSweepCursor(SWEEP).orElse(IndexPage.START);
+        KeyScanPage page = cartRepository.scanProductIndexKeys(cursor, keysPerRun);
+
+        long removed = 0;
+        for (String indexKey : page.keys()) {
+            removed += cartRepository.removeOrphanIndexEntries(indexKey, pageSize);
+        }
+        cartRepository.saveSweepCursor(SWEEP, page.cursor());
+
+        removedOrphans.increment(removed);
+        if (removed > 0 || page.isLast()) {
+            log.info("Index sweep removed {} orphan entries from {} keys{}", removed, page.keys().size(),
+                    page.isLast() ? ", pass complete" : "");
+        }
+    }
+
+    private void enableKeyspaceEvents() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+                Properties config = connection.serverCommands().getConfig("notify-keyspace-events");
+                String flags = config != null ? config.getProperty("notify-keyspace-events", "") : "";
+                StringBuilder merged = new StringBuilder(flags);
+                for (char flag : REQUIRED_EVENT_FLAGS.toCharArray()) {
+                    // 'A' already includes g and x
+                    if (flags.indexOf(flag) < 0 && !(flag != 'E' && flags.indexOf('A') >= 0)) {
+                        merged.append(flag);
+                    }
+                }
+                if (!merged.toString().equals(flags)) {
+                    connection.serverCommands().setConfig("notify-keyspace-events", merged.toString());
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Could not enable Redis keyspace notifications, relying on the index sweep: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+-- KEYS[1] cart key, KEYS[2] reverse index, KEYS[3] product index bucket
+-- ARGV[1] productId, ARGV[2] quantity to add, ARGV[3] encoded new item ('' if not resolved yet), ARGV[4] TTL seconds
+local key = KEYS[1]
+if is_legacy(key) then
+    return { -1 }
+end
+
+local index_size
+local current = redis.call('HGET', key, ARGV[1])
+if current then
+    local quantity, price, details = split_item(current)
+    redis.call('HSET', key, ARGV[1], join_item(quantity + tonumber(ARGV[2]), price, details))
+elseif ARGV[3] ~= '' then
+    redis.call('HSET', key, ARGV[1], ARGV[3])
+    index_size = index_add(ARGV[1], ARGV[4])
+else
+    -- Caller has to resolve the product snapshot and call again with ARGV[3] set
+    return reply(key, 3)
+end
+
+commit(key, ARGV[4])
+local out = reply(key, 1)
+if index_size then
+    -- Meta field the codec ignores, lets the caller grow the index once the bucket gets too big
+    out[#out + 1] = '@indexSize'
+    out[#out + 1] = tostring(index_size)
+end
+return out
@@ -0,0 +1,80 @@
+-- Shared helpers prepended to every cart script.
+-- Item fields hold "{quantity}|{price}|{details}" (see CartHashCodec); fields starting with '@' are meta fields.
+-- Prices are decimal strings with at most two fraction digits, so totals are summed in cents to stay exact.
+
+local function to_cents(price)
+    local whole, fraction = string.match(price, '^(%d*)%.?(%d*)$')
+    fraction = string.sub(fraction .. '00', 1, 2)
+    return (tonumber(whole) or 0) * 100 + tonumber(fraction)
+end
+
+local function from_cents(cents)
+    return string.format('%d.%02d', math.floor(cents / 100), cents % 100)
+end
+
+local function split_item(value)
+    local quantity_end = string.find(value, '|', 1, true)
+    local price_end = string.find(value, '|', quantity_end + 1, true)
+    return tonumber(string.sub(value, 1, quantity_end - 1)),
+        string.sub(value, quantity_end + 1, price_end - 1),
+        string.sub(value, price_end + 1)
+end
+
+local function join_item(quantity, price, details)
+    return quantity .. '|' .. price .. '|' .. details
+end
+
+-- KEYS[2] is the cart's reverse index (cart-products:{userId}), KEYS[3..] the product index buckets of the line:
+-- the bucket to add to, or every bucket the user may sit in when removing (see ProductIndexBuckets).
+-- Index changes are made here so they commit exactly when the cart change does.
+local REVERSE_INDEX_GRACE = 604800 -- the reverse index outlives the cart by 7 days
+
+local function index_add(product_id, ttl)
+    redis.call('SADD', KEYS[3], string.sub(KEYS[1], 6)) -- strip 'cart:'
+    redis.call('SADD', KEYS[2], product_id)
+    redis.call('EXPIRE', KEYS[2], tonumber(ttl) + REVERSE_INDEX_GRACE)
+    return redis.call('SCARD', KEYS[3])
+end
+
+local function index_remove(product_id)
+    local user_id = string.sub(KEYS[1], 6)
+    for i = 3, #KEYS do
+        redis.call('SREM', KEYS[i], user_id)
+    end
+    redis.call('SREM', KEYS[2], product_id)
+end
+
+local function is_legacy(key)
+    return redis.call('TYPE', key)['ok'] == 'string'
+end
+
+local function recompute_totals(key)
+    local fields = redis.call('HGETALL', key)
+    local quantity, cents = 0, 0
+    for i = 1, #fields, 2 do
+        if string.sub(fields[i], 1, 1) ~= '@' then
+            local item_quantity, item_price = split_item(fields[i + 1])
+            quantity = quantity + item_quantity
+            cents = cents + item_quantity * to_cents(item_price)
+        end
+    end
+    redis.call('HSET', key, '@totalQuantity', quantity, '@totalAmount', from_cents(cents))
+end
+
+-- Recomputes totals, bumps the cart version and refreshes the TTL after a mutation
+local function commit(key, ttl)
+    recompute_totals(key)
+    redis.call('HINCRBY', key, '@version', 1)
+    redis.call('EXPIRE', key, ttl)
+end
+
+-- Status codes (CartMutation.Status): 0 UNCHANGED, 1 UPDATED, 2 REMOVED, 3 ITEM_MISSING, -1 legacy JSON cart
+local function reply(key, status)
+    local out = { status }
+    local fields = redis.call('HGETALL', key)
+    for i = 1, #fields do
+        out[#out + 1] = fields[i]
+    end
+    return out
+end
+
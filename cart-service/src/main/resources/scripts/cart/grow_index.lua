@@ -0,0 +1,10 @@
+-- KEYS[1] product index bucket-count key
+-- ARGV[1] bucket count the caller saw, ARGV[2] new bucket count
+-- Compare-and-set, so concurrent writers that hit the threshold grow the index only once.
+-- Returns the bucket count after the call.
+local current = tonumber(redis.call('GET', KEYS[1]) or '1')
+if current == tonumber(ARGV[1]) then
+    redis.call('SET', KEYS[1], ARGV[2])
+    return tonumber(ARGV[2])
+end
+return current
@@ -0,0 +1,16 @@
+-- KEYS[1] product snapshot key
+-- ARGV[1] price in minor units, ARGV[2] inventory
+-- Stores "{version}|{price}|{inventory}", bumping the version only if price or inventory changed.
+-- Returns the snapshot version after the call.
+local current = redis.call('GET', KEYS[1])
+local version = 0
+if current then
+    local stored_version, rest = string.match(current, '^(%d+)|(.*)$')
+    if rest == ARGV[1] .. '|' .. ARGV[2] then
+        return tonumber(stored_version)
+    end
+    version = tonumber(stored_version)
+end
+version = version + 1
+redis.call('SET', KEYS[1], version .. '|' .. ARGV[1] .. '|' .. ARGV[2])
+return version
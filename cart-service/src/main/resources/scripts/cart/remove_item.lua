@@ -0,0 +1,19 @@
+-- KEYS[1] cart key, KEYS[2] reverse index, KEYS[3..] product index buckets
+-- ARGV[1] productId, ARGV[2] TTL seconds, ARGV[3] '1' to reply with the cart, '0' for the status only
+local key = KEYS[1]
+if is_legacy(key) then
+    return { -1 }
+end
+
+local status = 2
+if redis.call('HDEL', key, ARGV[1]) == 0 then
+    status = 0
+else
+    index_remove(ARGV[1])
+    commit(key, ARGV[2])
+end
+
+if ARGV[3] == '0' then
+    return { status }
+end
+return reply(key, status)
@@ -0,0 +1,29 @@
+-- KEYS[1] cart key, KEYS[2] reverse index, KEYS[3..] product index buckets
+-- ARGV[1] productId, ARGV[2] new price, ARGV[3] available inventory, ARGV[4] TTL seconds
+-- Removes the line if inventory no longer covers the quantity, otherwise updates its price.
+-- Only the status is returned, fan-out callers do not need the cart itself.
+local key = KEYS[1]
+if is_legacy(key) then
+    return { -1 }
+end
+
+local current = redis.call('HGET', key, ARGV[1])
+if not current then
+    return { 3 }
+end
+
+local quantity, price, details = split_item(current)
+local status
+if tonumber(ARGV[3]) < quantity then
+    redis.call('HDEL', key, ARGV[1])
+    index_remove(ARGV[1])
+    status = 2
+elseif to_cents(price) ~= to_cents(ARGV[2]) then
+    redis.call('HSET', key, ARGV[1], join_item(quantity, ARGV[2], details))
+    status = 1
+else
+    return { 0 }
+end
+
+commit(key, ARGV[4])
+return { status }
@@ -0,0 +1,4 @@
+-- KEYS[1] product index key
+-- ARGV[1] SSCAN cursor, ARGV[2] COUNT hint
+-- Returns { next cursor, { userIds } }. Wrapped in a script so a fan-out can resume from a stored cursor.
+return redis.call('SSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
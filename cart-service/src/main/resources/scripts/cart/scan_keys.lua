@@ -0,0 +1,3 @@
+-- ARGV[1] SCAN cursor, ARGV[2] MATCH pattern, ARGV[3] COUNT hint
+-- Returns { next cursor, { keys } }. Wrapped in a script so a sweep can resume from a stored cursor.
+return redis.call('SCAN', ARGV[1], 'MATCH', ARGV[2], 'COUNT', ARGV[3])
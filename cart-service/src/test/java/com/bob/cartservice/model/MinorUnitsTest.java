@@ -0,0 +1,73 @@
+package com.bob.cartservice.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MinorUnitsTest {
+
+    @Test
+    void parsesUpToTwoFractionDigits() {
+        assertThat(MinorUnits.parse("12")).isEqualTo(1200);
+        assertThat(MinorUnits.parse("12.5")).isEqualTo(1250);
+        assertThat(MinorUnits.parse("12.05")).isEqualTo(1205);
+        assertThat(MinorUnits.parse("12.")).isEqualTo(1200);
+        assertThat(MinorUnits.parse("0.99")).isEqualTo(99);
+        assertThat(MinorUnits.parse("0")).isZero();
+    }
+
+    @Test
+    void parsesNegativeAmounts() {
+        assertThat(MinorUnits.parse("-3")).isEqualTo(-300);
+        assertThat(MinorUnits.parse("-0.5")).isEqualTo(-50);
+        assertThat(MinorUnits.parse("-12.34")).isEqualTo(-1234);
+    }
+
+    @Test
+    void roundsExtraFractionDigitsHalfUp() {
+        assertThat(MinorUnits.parse("1.005")).isEqualTo(101);
+        assertThat(MinorUnits.parse("1.004")).isEqualTo(100);
+        assertThat(MinorUnits.parse("-1.005")).isEqualTo(-101);
+    }
+
+    @Test
+    void parsesAmountsWithoutAnIntegerPart() {
+        assertThat(MinorUnits.parse(".5")).isEqualTo(50);
+    }
+
+    @Test
+    void rejectsMalformedAmounts() {
+        assertThatThrownBy(() -> MinorUnits.parse("")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> MinorUnits.parse("-")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> MinorUnits.parse("abc")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> MinorUnits.parse("1.x")).isInstanceOf(NumberFormatException.class);
+    }
+
+    @Test
+    void formatsWithTwoFractionDigits() {
+        assertThat(MinorUnits.format(0)).isEqualTo("0.00");
+        assertThat(MinorUnits.format(5)).isEqualTo("0.05");
+        assertThat(MinorUnits.format(1250)).isEqualTo("12.50");
+        assertThat(MinorUnits.format(-5)).isEqualTo("-0.05");
+        assertThat(MinorUnits.format(-1234)).isEqualTo("-12.34");
+    }
+
+    @Test
+    void formatAndParseRoundTrip() {
+        for (long units : new long[]{0, 1, 9, 10, 99, 100, 123456789, -1, -100, Long.MAX_VALUE / 1000}) {
+            assertThat(MinorUnits.parse(MinorUnits.format(units))).isEqualTo(units);
+        }
+    }
+
+    @Test
+    void convertsToAndFromBigDecimal() {
+        assertThat(MinorUnits.toBigDecimal(1999)).isEqualByComparingTo("19.99");
+        assertThat(MinorUnits.toBigDecimal(1999).scale()).isEqualTo(2);
+        assertThat(MinorUnits.fromBigDecimal(new BigDecimal("19.99"))).isEqualTo(1999);
+        assertThat(MinorUnits.fromBigDecimal(new BigDecimal("19.995"))).isEqualTo(2000);
+        assertThat(MinorUnits.fromBigDecimal(new BigDecimal("7"))).isEqualTo(700);
+    }
+}
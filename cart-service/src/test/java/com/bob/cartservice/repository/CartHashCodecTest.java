@@ -0,0 +1,100 @@
+package com.bob.cartservice.repository;
+
+import com.bob.cartservice.model.Cart;
+import com.bob.cartservice.model.CartItem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class CartHashCodecTest {
+
+    private final CartHashCodec codec = new CartHashCodec(new ObjectMapper());
+
+    @Test
+    void protoDetailsRoundTrip() {
+        CartItem item = item("p-1", 3, 1999);
+        item.setName("Wireless Mouse");
+        item.setBrand("Logitech");
+        item.setAvailable(true);
+        item.setSnapshotVersion(42);
+
+        String value = codec.encodeItem(item);
+
+        assertThat(value).startsWith("3|19.99|1");
+        CartItem decoded = codec.decodeItem("p-1", value);
+        assertThat(decoded.getProductId()).isEqualTo("p-1");
+        assertThat(decoded.getQuantity()).isEqualTo(3);
+        assertThat(decoded.getPriceMinor()).isEqualTo(1999);
+        assertThat(decoded.getSnapshotVersion()).isEqualTo(42);
+        // Display fields are not stored and stay null until the catalog fills them in
+        assertThat(decoded.getName()).isNull();
+        assertThat(decoded.getBrand()).isNull();
+        assertThat(decoded.getImageUrl()).isNull();
+    }
+
+    @Test
+    void cartRoundTrip() {
+        Cart cart = new Cart();
+        cart.getItems().add(item("p-1", 2, 500));
+        cart.getItems().add(item("p-2", 1, 1005));
+        cart.setTotalQuantity(3);
+        cart.setTotalAmountMinor(2005);
+        cart.setVersion(7);
+
+        Map<String, String> fields = codec.encode(cart);
+
+        assertThat(fields).containsEntry("@totalQuantity", "3")
+                .containsEntry("@totalAmount", "20.05")
+                .containsEntry("@version", "7");
+        Cart decoded = codec.decode("user-1", fields);
+        assertThat(decoded.getUserId()).isEqualTo("user-1");
+        assertThat(decoded.getTotalQuantity()).isEqualTo(3);
+        assertThat(decoded.getTotalAmountMinor()).isEqualTo(2005);
+        assertThat(decoded.getVersion()).isEqualTo(7);
+        assertThat(decoded.getItems()).extracting(CartItem::getProductId, CartItem::getQuantity, CartItem::getPriceMinor)
+                .containsExactlyInAnyOrder(
+                        tuple("p-1", 2, 500L),
+                        tuple("p-2", 1, 1005L));
+    }
+
+    @Test
+    void decodesLegacyJsonDetails() {
+        CartItem decoded = codec.decodeItem("p-1",
+                "2|5.5|{\"name\":\"Mouse\",\"brand\":\"Logitech\",\"imageUrl\":\"http://img/1\",\"available\":true}");
+
+        assertThat(decoded.getQuantity()).isEqualTo(2);
+        assertThat(decoded.getPriceMinor()).isEqualTo(550);
+        assertThat(decoded.getName()).isEqualTo("Mouse");
+        assertThat(decoded.getBrand()).isEqualTo("Logitech");
+        assertThat(decoded.getImageUrl()).isEqualTo("http://img/1");
+        assertThat(decoded.isAvailable()).isTrue();
+        assertThat(decoded.getSnapshotVersion()).isZero();
+    }
+
+    @Test
+    void rejectsCorruptProtoDetails() {
+        assertThatThrownBy(() -> codec.decodeItem("p-1", "1|1.00|1/w"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("p-1");
+    }
+
+    @Test
+    void rejectsUnknownDetailsVersion() {
+        assertThatThrownBy(() -> codec.decodeItem("p-1", "1|1.00|9abc"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unknown details version '9'");
+    }
+
+    private static CartItem item(String productId, int quantity, long priceMinor) {
+        CartItem item = new CartItem();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        item.setPriceMinor(priceMinor);
+        return item;
+    }
+}
@@ -0,0 +1,261 @@
+package com.bob.cartservice.service;
+
+import com.bob.cartservice.dto.CartResponseDTO;
+import com.bob.cartservice.exception.CartConcurrentModificationException;
+import com.bob.cartservice.exception.CartValidationException;
+import com.bob.cartservice.exception.ResourceNotFoundException;
+import com.bob.cartservice.grpc.ProductGrpcClient;
+import com.bob.cartservice.model.Cart;
+import com.bob.cartservice.model.CartItem;
+import com.bob.cartservice.repository.RedisCartRepository;
+import com.bob.product.proto.CartItemRequest;
+import com.bob.product.proto.CartItemValidationResult;
+import com.bob.product.proto.Money;
+import com.bob.product.proto.ValidateCartItemsResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CartServiceImplTest {
+
+    private static final String USER_ID = "user-1";
+
+    @Mock
+    private RedisCartRepository cartRepository;
+    @Mock
+    private ProductGrpcClient productGrpcClient;
+    @Mock
+    private CartFanOutEngine fanOutEngine;
+    @Mock
+    private ProductCatalogCache productCatalog;
+    @Mock
+    private ProductCatalogReplica catalogReplica;
+
+    @Captor
+    private ArgumentCaptor<List<CartItemRequest>> validatedItems;
+
+    @InjectMocks
+    private CartServiceImpl cartService;
+
+    // What Redis holds for the user
+    private Cart stored;
+    // Product Service's answer per product ID
+    private final Map<String, CartItemValidationResult> catalog = new HashMap<>();
+    // Writes made by other requests while a validation call is in flight, one per call
+    private final Deque<Runnable> concurrentWrites = new ArrayDeque<>();
+    // How many times each updateCart call applies its modifier; above 1 simulates WATCH retries
+    private int modifierRuns = 1;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(cartRepository.findByUserId(USER_ID))
+                .thenAnswer(invocation -> Optional.ofNullable(stored).map(CartServiceImplTest::copy));
+        lenient().when(cartRepository.updateCart(eq(USER_ID), any())).thenAnswer(invocation -> {
+            UnaryOperator<Cart> modifier = invocation.getArgument(1);
+            Cart result = null;
+            for (int run = 0; run < modifierRuns; run++) {
+                // Every run starts from what Redis holds; only the last one commits
+                result = modifier.apply(copy(stored));
+            }
+            result.setVersion(stored.getVersion() + 1);
+            stored = copy(result);
+            return result;
+        });
+        lenient().when(productGrpcClient.validateCartItems(anyList())).thenAnswer(invocation -> {
+            List<CartItemRequest> items = invocation.getArgument(0);
+            ValidateCartItemsResponse.Builder response = ValidateCartItemsResponse.newBuilder();
+            for (CartItemRequest item : items) {
+                response.addResults(catalog.get(item.getProductId()));
+            }
+            Runnable write = concurrentWrites.poll();
+            if (write != null) {
+                write.run();
+            }
+            return response.build();
+        });
+        lenient().when(productCatalog.hydrate(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void validCartIsRepricedInOneRound() {
+        stored = cart(item("p-1", 2, 1000), item("p-2", 1, 500));
+        catalog.put("p-1", valid("p-1", 1200));
+        catalog.put("p-2", valid("p-2", 500));
+
+        CartResponseDTO response = cartService.validateCartForCheckout(USER_ID);
+
+        assertThat(response.getItems()).extracting(CartItem::getProductId, CartItem::getPriceMinor)
+                .containsExactlyInAnyOrder(tuple("p-1", 1200L), tuple("p-2", 500L));
+        assertThat(response.getTotalQuantity()).isEqualTo(3);
+        assertThat(response.getVersion()).isEqualTo(stored.getVersion()).isEqualTo(1);
+        assertThat(stored.getTotalAmountMinor()).isEqualTo(2 * 1200 + 500);
+        verify(productGrpcClient, times(1)).validateCartItems(anyList());
+    }
+
+    @Test
+    void invalidLinesAreRemovedAndReported() {
+        stored = cart(item("p-1", 1, 1000), item("p-2", 1, 500));
+        catalog.put("p-1", valid("p-1", 1000));
+        catalog.put("p-2", invalid("p-2", "PRODUCT_INACTIVE"));
+
+        assertThatThrownBy(() -> cartService.validateCartForCheckout(USER_ID))
+                .isInstanceOfSatisfying(CartValidationException.class, e -> {
+                    assertThat(e.getInvalidItems()).containsExactly("p-2 (PRODUCT_INACTIVE)");
+                    assertThat(e.getUpdatedCart().getItems()).extracting(CartItem::getProductId)
+                            .containsExactly("p-1");
+                });
+        assertThat(stored.getItems()).extracting(CartItem::getProductId).containsExactly("p-1");
+        assertThat(stored.getTotalAmountMinor()).isEqualTo(1000);
+    }
+
+    @Test
+    void lineAddedDuringValidationIsValidatedInTheNextRound() {
+        stored = cart(item("p-1", 1, 1000));
+        catalog.put("p-1", valid("p-1", 1000));
+        catalog.put("p-2", valid("p-2", 700));
+        concurrentWrites.add(() -> stored.getItems().add(item("p-2", 1, 650)));
+
+        CartResponseDTO response = cartService.validateCartForCheckout(USER_ID);
+
+        assertThat(response.getItems()).extracting(CartItem::getProductId, CartItem::getPriceMinor)
+                .containsExactlyInAnyOrder(tuple("p-1", 1000L), tuple("p-2", 700L));
+        verify(productGrpcClient, times(2)).validateCartItems(anyList());
+    }
+
+    @Test
+    void quantityChangedDuringValidationIsValidatedInTheNextRound() {
+        stored = cart(item("p-1", 1, 1000));
+        catalog.put("p-1", valid("p-1", 1000));
+        concurrentWrites.add(() -> stored.getItems().getFirst().setQuantity(5));
+
+        CartResponseDTO response = cartService.validateCartForCheckout(USER_ID);
+
+        assertThat(response.getItems()).extracting(CartItem::getQuantity).containsExactly(5);
+        verify(productGrpcClient, times(2)).validateCartItems(validatedItems.capture());
+        assertThat(validatedItems.getValue()).extracting(CartItemRequest::getQuantity).containsExactly(5);
+    }
+
+    @Test
+    void removalsFromEarlierRoundsAreReported() {
+        stored = cart(item("p-1", 1, 1000), item("p-2", 1, 500));
+        catalog.put("p-1", valid("p-1", 1000));
+        catalog.put("p-2", invalid("p-2", "INSUFFICIENT_INVENTORY"));
+        catalog.put("p-3", valid("p-3", 300));
+        // Round 1 removes p-2 but finds p-3 unvalidated; round 2 commits without removing anything
+        concurrentWrites.add(() -> stored.getItems().add(item("p-3", 1, 300)));
+
+        assertThatThrownBy(() -> cartService.validateCartForCheckout(USER_ID))
+                .isInstanceOfSatisfying(CartValidationException.class, e ->
+                        assertThat(e.getInvalidItems()).containsExactly("p-2 (INSUFFICIENT_INVENTORY)"));
+        assertThat(stored.getItems()).extracting(CartItem::getProductId).containsExactlyInAnyOrder("p-1", "p-3");
+        verify(productGrpcClient, times(2)).validateCartItems(anyList());
+    }
+
+    @Test
+    void removalsOfRetriedCommitsAreReportedOnce() {
+        stored = cart(item("p-1", 1, 1000), item("p-2", 1, 500));
+        catalog.put("p-1", valid("p-1", 1000));
+        catalog.put("p-2", invalid("p-2", "PRODUCT_INACTIVE"));
+        modifierRuns = 2;
+
+        assertThatThrownBy(() -> cartService.validateCartForCheckout(USER_ID))
+                .isInstanceOfSatisfying(CartValidationException.class, e ->
+                        assertThat(e.getInvalidItems()).containsExactly("p-2 (PRODUCT_INACTIVE)"));
+        verify(productGrpcClient, times(1)).validateCartItems(anyList());
+    }
+
+    @Test
+    void givesUpWhenTheCartKeepsChanging() {
+        stored = cart(item("p-1", 1, 1000));
+        catalog.put("p-1", valid("p-1", 1000));
+        for (int round = 1; round <= 3; round++) {
+            int quantity = round + 1;
+            concurrentWrites.add(() -> stored.getItems().getFirst().setQuantity(quantity));
+        }
+
+        assertThatThrownBy(() -> cartService.validateCartForCheckout(USER_ID))
+                .isInstanceOf(CartConcurrentModificationException.class);
+        verify(productGrpcClient, times(3)).validateCartItems(anyList());
+    }
+
+    @Test
+    void emptyCartIsRejectedBeforeValidation() {
+        stored = cart();
+
+        assertThatThrownBy(() -> cartService.validateCartForCheckout(USER_ID))
+                .isInstanceOf(ResourceNotFoundException.class);
+        verifyNoInteractions(productGrpcClient);
+        verify(cartRepository, never()).updateCart(any(), any());
+    }
+
+    @Test
+    void missingCartIsRejectedBeforeValidation() {
+        assertThatThrownBy(() -> cartService.validateCartForCheckout(USER_ID))
+                .isInstanceOf(ResourceNotFoundException.class);
+        verifyNoInteractions(productGrpcClient);
+    }
+
+    private static CartItemValidationResult valid(String productId, long priceMinor) {
+        return CartItemValidationResult.newBuilder()
+                .setProductId(productId)
+                .setValid(true)
+                .setCurrentUnitPrice(Money.newBuilder().setUnits(priceMinor).setCurrency("USD"))
+                .build();
+    }
+
+    private static CartItemValidationResult invalid(String productId, String message) {
+        return CartItemValidationResult.newBuilder()
+                .setProductId(productId)
+                .setValid(false)
+                .setMessage(message)
+                .build();
+    }
+
+    private static Cart cart(CartItem... items) {
+        Cart cart = new Cart();
+        cart.setUserId(USER_ID);
+        for (CartItem item : items) {
+            cart.getItems().add(item);
+            cart.setTotalQuantity(cart.getTotalQuantity() + item.getQuantity());
+            cart.setTotalAmountMinor(cart.getTotalAmountMinor() + item.getPriceMinor() * item.getQuantity());
+        }
+        return cart;
+    }
+
+    private static CartItem item(String productId, int quantity, long priceMinor) {
+        CartItem item = new CartItem();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        item.setPriceMinor(priceMinor);
+        return item;
+    }
+
+    private static Cart copy(Cart cart) {
+        Cart copy = new Cart();
+        copy.setUserId(cart.getUserId());
+        copy.setTotalQuantity(cart.getTotalQuantity());
+        copy.setTotalAmountMinor(cart.getTotalAmountMinor());
+        copy.setVersion(cart.getVersion());
+        for (CartItem item : cart.getItems()) {
+            copy.getItems().add(item(item.getProductId(), item.getQuantity(), item.getPriceMinor()));
+        }
+        return copy;
+    }
+}
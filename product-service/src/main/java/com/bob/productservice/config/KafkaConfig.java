@@ -1,13 +1,19 @@
 package com.bob.productservice.config; // (and com.bob.cartservice.config)
 
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -15,6 +21,11 @@ import java.util.Map;
 @Configuration
 public class KafkaConfig {
 
+    // Latest state of every product keyed by ID; compaction keeps one record per product (tombstone = deleted)
+    public static final String PRODUCT_SNAPSHOT_TOPIC = "product.snapshot";
+    // For listeners every replica runs in its own throwaway group
+    public static final String BROADCAST_LISTENER_FACTORY = "broadcastListenerContainerFactory";
+
     // Producer Config (For Product Service)
     @Bean
     public ProducerFactory<String, byte[]> producerFactory() {
@@ -29,4 +40,24 @@ public class KafkaConfig {
     public KafkaTemplate<String, byte[]> kafkaTemplate() {
         return new KafkaTemplate<>(producerFactory());
     }
+
+    // Manual ack mode, and these listeners never acknowledge: their per-start groups commit no offsets,
+    // so Kafka drops each group when its replica stops instead of keeping it for offsets.retention.minutes
+    @Bean(BROADCAST_LISTENER_FACTORY)
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> broadcastListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    @Bean
+    public NewTopic productSnapshotTopic() {
+        return TopicBuilder.name(PRODUCT_SNAPSHOT_TOPIC)
+                .partitions(3)
+                .compact()
+                .build();
+    }
 }
\ No newline at end of file
@@ -1,14 +1,20 @@
 package com.bob.productservice.controller;
 
+import com.bob.productservice.dto.ProductPageDTO;
 import com.bob.productservice.dto.ProductRequestDTO;
 import com.bob.productservice.dto.ProductResponseDTO;
+import com.bob.productservice.dto.SuggestionDTO;
+import com.bob.productservice.service.ProductExportService;
 import com.bob.productservice.service.ProductService;
+import com.bob.productservice.service.ProductSuggestionIndex;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.UUID;
@@ -18,13 +24,26 @@ import java.util.UUID;
 @RequestMapping("${api.prefix}/products")
 @Tag(name = "Product", description = "API for managing Products")
 public class ProductController {
+    private static final String NDJSON = "application/x-ndjson";
+
     private final ProductService productService;
+    private final ProductExportService productExportService;
+    private final ProductSuggestionIndex productSuggestionIndex;
 
     @GetMapping
-    @Operation(summary = "Get All Products")
-    public ResponseEntity<List<ProductResponseDTO>> getAllProducts() {
-        List<ProductResponseDTO> productResponseDTOS = productService.getAllProducts();
-        return ResponseEntity.ok(productResponseDTOS);
+    @Operation(summary = "Get Products, one page at a time")
+    public ResponseEntity<ProductPageDTO> getAllProducts(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "50") int size) {
+        return ResponseEntity.ok(productService.getProducts(cursor, size));
+    }
+
+    @GetMapping(value = "/export", produces = NDJSON)
+    @Operation(summary = "Export all Products as NDJSON, streamed")
+    public ResponseEntity<StreamingResponseBody> exportProducts() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(productExportService::exportNdjson);
     }
 
     @GetMapping("/{id}")
@@ -56,13 +75,26 @@ public class ProductController {
     }
 
     @GetMapping("/search")
-    @Operation(summary = "Search Products")
-    public ResponseEntity<List<ProductResponseDTO>> searchProducts(
+    @Operation(summary = "Search Products; with q, by relevance over name, brand and description, typos allowed")
+    public ResponseEntity<ProductPageDTO> searchProducts(
+            @RequestParam(required = false, defaultValue = "") String q,
             @RequestParam(required = false, defaultValue = "") String brand,
             @RequestParam(required = false, defaultValue = "") String name,
-            @RequestParam(required = false, defaultValue = "") String category) {
-        List<ProductResponseDTO> productResponseDTOS = productService.searchProducts(brand, name, category);
-        return ResponseEntity.ok(productResponseDTOS);
+            @RequestParam(required = false, defaultValue = "") String category,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "50") int size) {
+        if (!q.isBlank()) {
+            return ResponseEntity.ok(productService.searchProductsByText(q.strip(), brand, category, size));
+        }
+        return ResponseEntity.ok(productService.searchProducts(brand, name, category, cursor, size));
+    }
+
+    @GetMapping("/suggest")
+    @Operation(summary = "Autocomplete Product names, brands and categories from a prefix")
+    public ResponseEntity<List<SuggestionDTO>> suggest(
+            @RequestParam String q,
+            @RequestParam(required = false, defaultValue = "10") int limit) {
+        return ResponseEntity.ok(productSuggestionIndex.suggest(q, limit));
     }
 
     @GetMapping("/count")
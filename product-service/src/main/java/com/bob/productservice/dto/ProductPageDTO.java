@@ -0,0 +1,14 @@
+package com.bob.productservice.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class ProductPageDTO {
+    private List<ProductResponseDTO> items;
+    // Pass back as "cursor" for the next page; null on the last page
+    private String nextCursor;
+}
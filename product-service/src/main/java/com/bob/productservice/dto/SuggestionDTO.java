@@ -0,0 +1,18 @@
+package com.bob.productservice.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class SuggestionDTO {
+    // What the suggestion completes to; pass it as "q" to /search
+    private String text;
+    private Type type;
+    // Active products carrying the text
+    private int products;
+
+    public enum Type {
+        NAME, BRAND, CATEGORY
+    }
+}
@@ -1,23 +1,62 @@
 package com.bob.productservice.grpc;
 
 import com.bob.product.proto.*;
+import com.bob.productservice.mapper.MoneyMapper;
 import com.bob.productservice.model.Product;
 import com.bob.productservice.repository.ProductRepository;
+import com.bob.productservice.service.ProductCache;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @GrpcService
-@RequiredArgsConstructor
+@Slf4j
 public class ProductGrpcServiceImpl extends ProductServiceGrpc.ProductServiceImplBase {
 
+    // Sorts before every other UUID in Postgres, so sync starts at the first product
+    private static final UUID FIRST_ID = new UUID(0, 0);
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+    private static final int MAX_CHUNK_SIZE = 2000;
+
     private final ProductRepository productRepository;
+    private final ProductCache productCache;
+    // Catalog sync pages are read here rather than on the gRPC transport threads
+    private final ExecutorService syncExecutor;
+
+    public ProductGrpcServiceImpl(ProductRepository productRepository,
+                                  ProductCache productCache,
+                                  @Value("${product.sync.threads:4}") int syncThreads,
+                                  @Value("${product.sync.queue-capacity:1000}") int syncQueueCapacity) {
+        this.productRepository = productRepository;
+        this.productCache = productCache;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.syncExecutor = new ThreadPoolExecutor(syncThreads, syncThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(syncQueueCapacity),
+                runnable -> new Thread(runnable, "catalog-sync-" + threadCount.incrementAndGet()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        syncExecutor.shutdownNow();
+    }
 
     @Override
     public void getProductById(GetProductRequest request,
@@ -25,7 +64,7 @@ public class ProductGrpcServiceImpl extends ProductServiceGrpc.ProductServiceImp
         String productId = request.getProductId();
 
         try {
-            Product product = productRepository.findById(UUID.fromString(productId))
+            Product product = productCache.find(UUID.fromString(productId))
                     .orElseThrow(() -> new RuntimeException("Product not found"));
 
             com.bob.product.proto.Product protoProduct = mapToProto(product);
@@ -42,16 +81,19 @@ public class ProductGrpcServiceImpl extends ProductServiceGrpc.ProductServiceImp
                              StreamObserver<ListProductsResponse> responseObserver) {
         List<String> productIds = request.getProductIdsList();
 
-        List<Product> products;
+        // The whole catalog is only served in bounded chunks through SyncCatalog
         if (productIds.isEmpty()) {
-            products = productRepository.findAll();
-        } else {
-            List<UUID> uuids = productIds.stream()
-                    .map(UUID::fromString)
-                    .collect(Collectors.toList());
-            products = productRepository.findAllById(uuids);
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("productIds must not be empty, use SyncCatalog to read the whole catalog")
+                    .asRuntimeException());
+            return;
         }
 
+        List<UUID> uuids = productIds.stream()
+                .map(UUID::fromString)
+                .collect(Collectors.toList());
+        List<Product> products = productRepository.findAllById(uuids);
+
         List<com.bob.product.proto.Product> protoProducts = products.stream()
                 .map(this::mapToProto)
                 .collect(Collectors.toList());
@@ -105,6 +147,7 @@ public class ProductGrpcServiceImpl extends ProductServiceGrpc.ProductServiceImp
                         .setMessage("INSUFFICIENT_INVENTORY")
                         .setAvailableQuantity(product.getInventory())
                         .setCurrentPrice(product.getPrice().toString())
+                        .setCurrentUnitPrice(MoneyMapper.toProto(product.getPrice()))
                         .build();
             }
 
@@ -112,6 +155,7 @@ public class ProductGrpcServiceImpl extends ProductServiceGrpc.ProductServiceImp
             return resultBuilder
                     .setValid(true)
                     .setCurrentPrice(product.getPrice().toString())
+                    .setCurrentUnitPrice(MoneyMapper.toProto(product.getPrice()))
                     .setAvailableQuantity(product.getInventory())
                     .build();
 
@@ -127,15 +171,143 @@ public class ProductGrpcServiceImpl extends ProductServiceGrpc.ProductServiceImp
     }
 
 
+    @Override
+    public void syncCatalog(SyncCatalogRequest request, StreamObserver<ProductChunk> responseObserver) {
+        UUID after;
+        try {
+            after = request.getAfterId().isEmpty() ? FIRST_ID : UUID.fromString(request.getAfterId());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Invalid afterId").asRuntimeException());
+            return;
+        }
+        Instant since = Instant.ofEpochMilli(request.getUpdatedSinceMillis());
+        int chunkSize = request.getChunkSize() > 0
+                ? Math.min(request.getChunkSize(), MAX_CHUNK_SIZE)
+                : DEFAULT_CHUNK_SIZE;
+
+        // Chunks are only read and sent while the client keeps up, so neither side buffers the catalog
+        ServerCallStreamObserver<ProductChunk> observer = (ServerCallStreamObserver<ProductChunk>) responseObserver;
+        CatalogSync sync = new CatalogSync(observer, after, since, chunkSize);
+        observer.setOnCancelHandler(sync::cancel);
+        observer.setOnReadyHandler(sync::sendWhileReady);
+        sync.start();
+    }
+
+    /**
+     * One catalog sync stream. Reads stay one chunk ahead of the client: the next chunk is loaded on the
+     * sync executor while the current one is in flight, and the ready handler only sends what is loaded.
+     */
+    private final class CatalogSync {
+
+        private final ServerCallStreamObserver<ProductChunk> observer;
+        private final Instant since;
+        private final int chunkSize;
+        // Guarded by this
+        private UUID after;
+        private ProductChunk loaded;
+        private boolean loadedIsLast;
+        private boolean loading;
+        private boolean done;
+
+        CatalogSync(ServerCallStreamObserver<ProductChunk> observer, UUID after, Instant since, int chunkSize) {
+            this.observer = observer;
+            this.after = after;
+            this.since = since;
+            this.chunkSize = chunkSize;
+        }
+
+        synchronized void start() {
+            loadNext();
+        }
+
+        synchronized void sendWhileReady() {
+            while (!done && loaded != null && observer.isReady()) {
+                observer.onNext(loaded);
+                loaded = null;
+                if (loadedIsLast) {
+                    done = true;
+                    observer.onCompleted();
+                }
+            }
+            loadNext();
+        }
+
+        synchronized void cancel() {
+            done = true;
+        }
+
+        private void loadNext() {
+            if (done || loading || loaded != null) {
+                return;
+            }
+            loading = true;
+            UUID from = after;
+            try {
+                syncExecutor.execute(() -> load(from));
+            } catch (RejectedExecutionException e) {
+                fail(Status.RESOURCE_EXHAUSTED.withDescription("Too many catalog syncs in progress"), e);
+            }
+        }
+
+        // Runs on the sync executor
+        private void load(UUID from) {
+            List<Product> products;
+            ProductChunk chunk;
+            try {
+                products = productRepository.findChangedAfter(from, since, Limit.of(chunkSize));
+                chunk = products.isEmpty() ? null : ProductChunk.newBuilder()
+                        .addAllProducts(products.stream().map(ProductGrpcServiceImpl.this::mapToProto).toList())
+                        .setLastId(products.getLast().getId().toString())
+                        .build();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    fail(Status.INTERNAL.withDescription("Catalog sync failed"), e);
+                }
+                return;
+            }
+
+            synchronized (this) {
+                loading = false;
+                if (done) {
+                    return;
+                }
+                if (chunk == null) {
+                    // The previous chunk was full and happened to end the catalog
+                    done = true;
+                    observer.onCompleted();
+                    return;
+                }
+                after = products.getLast().getId();
+                loaded = chunk;
+                loadedIsLast = products.size() < chunkSize;
+                // The ready handler only runs when the stream becomes ready; if it already is, send from here
+                sendWhileReady();
+            }
+        }
+
+        private void fail(Status status, RuntimeException e) {
+            loading = false;
+            if (done) {
+                return;
+            }
+            log.error("Catalog sync failed after product {}", after, e);
+            done = true;
+            observer.onError(status.asRuntimeException());
+        }
+    }
+
     private com.bob.product.proto.Product mapToProto(Product product) {
         return com.bob.product.proto.Product.newBuilder()
                 .setId(product.getId().toString())
                 .setName(product.getName())
                 .setBrand(product.getBrand())
                 .setDescription(product.getDescription())
-                .setPrice(product.getPrice().toString()) // BigDecimal to String
+                .setPrice(product.getPrice().toString()) // BigDecimal to String, for older clients
+                .setUnitPrice(MoneyMapper.toProto(product.getPrice()))
                 .setInventory(product.getInventory())
+                .setActive(product.isActive())
                 .setCategoryName(product.getCategory() != null ? product.getCategory().getName() : "")
+                .setUpdatedAtMillis(product.getUpdatedAt() != null ? product.getUpdatedAt().toEpochMilli() : 0)
                 .build();
     }
 }
\ No newline at end of file
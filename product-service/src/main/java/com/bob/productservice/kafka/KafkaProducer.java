@@ -2,6 +2,8 @@ package com.bob.productservice.kafka;
 
 import com.bob.product.proto.Product;
 import com.bob.product.proto.ProductDeletedEvent;
+import com.bob.productservice.config.KafkaConfig;
+import com.bob.productservice.mapper.MoneyMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.core.KafkaTemplate;
@@ -19,13 +21,7 @@ public class KafkaProducer {
     public void sendProductUpdatedEvent(com.bob.productservice.model.Product productEntity) {
         // 1. Convert Entity to Protobuf Message
         // We use the existing 'Product' proto definition as our Event object
-        Product event = Product.newBuilder()
-                .setId(productEntity.getId().toString())
-                .setName(productEntity.getName())
-                .setBrand(productEntity.getBrand())
-                .setPrice(productEntity.getPrice().toString()) // BigDecimal -> String
-                .setInventory(productEntity.getInventory())
-                .build();
+        Product event = toEvent(productEntity);
 
         // 2. Send as byte[]
         try {
@@ -34,6 +30,34 @@ public class KafkaProducer {
         } catch (Exception e) {
             log.error("Error sending ProductUpdated event: {}", event, e);
         }
+        sendProductSnapshot(event);
+    }
+
+    public void sendProductCreatedEvent(com.bob.productservice.model.Product productEntity) {
+        sendProductSnapshot(toEvent(productEntity));
+    }
+
+    // Full product state keyed by ID on a compacted topic, so consumers can rebuild the catalog from it
+    private void sendProductSnapshot(Product event) {
+        try {
+            kafkaTemplate.send(KafkaConfig.PRODUCT_SNAPSHOT_TOPIC, event.getId(), event.toByteArray());
+        } catch (Exception e) {
+            log.error("Error sending product snapshot: {}", event, e);
+        }
+    }
+
+    private static Product toEvent(com.bob.productservice.model.Product productEntity) {
+        return Product.newBuilder()
+                .setId(productEntity.getId().toString())
+                .setName(productEntity.getName())
+                .setBrand(productEntity.getBrand())
+                .setPrice(productEntity.getPrice().toString()) // BigDecimal -> String, for older consumers
+                .setUnitPrice(MoneyMapper.toProto(productEntity.getPrice()))
+                .setInventory(productEntity.getInventory())
+                .setActive(productEntity.isActive())
+                .setCategoryName(productEntity.getCategory() != null ? productEntity.getCategory().getName() : "")
+                .setUpdatedAtMillis(productEntity.getUpdatedAt() != null ? productEntity.getUpdatedAt().toEpochMilli() : 0)
+                .build();
     }
 
     public void sendProductDeletedEvent(com.bob.productservice.model.Product productEntity) {
@@ -50,6 +74,9 @@ public class KafkaProducer {
             // Send to "product.deleted" topic
             kafkaTemplate.send("product.deleted", event.getProductId(), event.toByteArray());
 
+            // Tombstone, so compaction drops the product from the snapshot topic
+            kafkaTemplate.send(KafkaConfig.PRODUCT_SNAPSHOT_TOPIC, event.getProductId(), null);
+
         } catch (Exception e) {
             log.error("Error sending ProductDeleted event", e);
         }
@@ -0,0 +1,26 @@
+package com.bob.productservice.mapper;
+
+import com.bob.product.proto.Money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts entity prices to the integer minor-unit {@link Money} sent over gRPC and Kafka.
+ */
+public final class MoneyMapper {
+
+    // The catalog is priced in a single currency with two fraction digits
+    public static final String CURRENCY = "USD";
+    private static final int FRACTION_DIGITS = 2;
+
+    private MoneyMapper() {
+    }
+
+    public static Money toProto(BigDecimal amount) {
+        return Money.newBuilder()
+                .setUnits(amount.setScale(FRACTION_DIGITS, RoundingMode.HALF_UP).unscaledValue().longValueExact())
+                .setCurrency(CURRENCY)
+                .build();
+    }
+}
@@ -15,6 +15,8 @@ public interface ProductMapper {
     ProductResponseDTO toDto(Product product);
 
     @Mapping(target = "category", ignore = true)
+    @Mapping(target = "active", ignore = true)
+    @Mapping(target = "updatedAt", ignore = true)
     Product toEntity(ProductRequestDTO productRequestDTO);
 
     List<ProductResponseDTO> toDtoList(List<Product> products);
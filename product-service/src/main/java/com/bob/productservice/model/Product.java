@@ -3,8 +3,10 @@ package com.bob.productservice.model;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 
@@ -33,6 +35,10 @@ public class Product {
     @Builder.Default
     private boolean active = true;
 
+    // Set by Hibernate on every insert/update; drives incremental catalog sync (older rows are backfilled at startup)
+    @UpdateTimestamp
+    private Instant updatedAt;
+
     @NotNull
     @ManyToOne(cascade = {CascadeType.MERGE, CascadeType.DETACH, CascadeType.REFRESH, CascadeType.PERSIST})
     @JoinColumn(name = "category_id")
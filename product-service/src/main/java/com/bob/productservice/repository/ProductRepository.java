@@ -1,38 +1,93 @@
 package com.bob.productservice.repository;
 
 import com.bob.productservice.model.Product;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface ProductRepository extends JpaRepository<Product, UUID> {
-    List<Product> findByCategoryNameIgnoreCase(String category);
 
-    List<Product> findByBrandIgnoreCase(String brand);
+    // Searchable text of a product, for the GIN index in ProductSearchIndex. The search queries below spell it
+    // out with the columns qualified (category has a name too); the planner matches index expressions by column,
+    // not by spelling, so they still use the index.
+    String SEARCH_DOCUMENT = "to_tsvector('simple', coalesce(name, '') || ' ' || coalesce(brand, '') || ' ' "
+            + "|| coalesce(description, ''))";
 
-    List<Product> findByCategoryNameIgnoreCaseAndBrandIgnoreCase(String category, String brand);
-
-    List<Product> findByNameContainingIgnoreCase(String name);
-
-    List<Product> findByBrandIgnoreCaseAndNameContainingIgnoreCase(String brand, String name);
+    // Category and images loaded up front, so the product can be mapped outside a persistence context (ProductCache)
+    @EntityGraph(attributePaths = {"category", "images"})
+    Optional<Product> findDetailedById(UUID id);
 
     Long countByBrandIgnoreCaseAndNameContainingIgnoreCase(String brand, String name);
 
-    // optional: custom search using @Query or Specification
+    // Keyset pages in ID order: products after the last ID of the previous page, never an OFFSET scan
     @Query("""
             SELECT p FROM Product p
-            JOIN p.category c
-            WHERE (NULLIF(:brand, '') IS NULL OR LOWER(p.brand) = LOWER(NULLIF(:brand, '')))
+            JOIN FETCH p.category c
+            WHERE p.id > :after
+              AND (NULLIF(:brand, '') IS NULL OR LOWER(p.brand) = LOWER(NULLIF(:brand, '')))
               AND (NULLIF(:name, '') IS NULL OR LOWER(p.name) LIKE LOWER(CONCAT('%', NULLIF(:name, ''), '%')))
               AND (NULLIF(:category, '') IS NULL OR LOWER(c.name) = LOWER(NULLIF(:category, '')))
+            ORDER BY p.id
             """)
-    List<Product> searchProducts(
+    List<Product> searchProductsAfter(
             @Param("brand") String brand,
             @Param("name") String name,
-            @Param("category") String category
+            @Param("category") String category,
+            @Param("after") UUID after,
+            Limit limit
     );
 
+    // Keyset chunks for catalog sync
+    @Query("""
+            SELECT p FROM Product p
+            LEFT JOIN FETCH p.category
+            WHERE p.id > :after
+              AND p.updatedAt >= :since
+            ORDER BY p.id
+            """)
+    List<Product> findChangedAfter(@Param("after") UUID after, @Param("since") Instant since, Limit limit);
+
+    // Ranked full-text search with typo tolerance: tokens match the tsvector, near misses match name/brand trigrams
+    @Query(nativeQuery = true, value = """
+            SELECT p.* FROM product p
+            LEFT JOIN category c ON c.id = p.category_id
+            WHERE (to_tsvector('simple', coalesce(p.name, '') || ' ' || coalesce(p.brand, '') || ' ' || coalesce(p.description, ''))
+                       @@ websearch_to_tsquery('simple', :q)
+                   OR lower(:q) <% lower(p.name)
+                   OR lower(:q) <% lower(p.brand))
+              AND (:brand = '' OR lower(p.brand) = lower(:brand))
+              AND (:category = '' OR lower(c.name) = lower(:category))
+            ORDER BY ts_rank(to_tsvector('simple', coalesce(p.name, '') || ' ' || coalesce(p.brand, '') || ' ' || coalesce(p.description, '')),
+                             websearch_to_tsquery('simple', :q))
+                     + word_similarity(lower(:q), lower(p.name)) DESC, p.id
+            LIMIT :limit
+            """)
+    List<Product> searchRanked(@Param("q") String query,
+                               @Param("brand") String brand,
+                               @Param("category") String category,
+                               @Param("limit") int limit);
+
+    // searchRanked without the trigram parts, for databases where pg_trgm could not be installed
+    @Query(nativeQuery = true, value = """
+            SELECT p.* FROM product p
+            LEFT JOIN category c ON c.id = p.category_id
+            WHERE to_tsvector('simple', coalesce(p.name, '') || ' ' || coalesce(p.brand, '') || ' ' || coalesce(p.description, ''))
+                      @@ websearch_to_tsquery('simple', :q)
+              AND (:brand = '' OR lower(p.brand) = lower(:brand))
+              AND (:category = '' OR lower(c.name) = lower(:category))
+            ORDER BY ts_rank(to_tsvector('simple', coalesce(p.name, '') || ' ' || coalesce(p.brand, '') || ' ' || coalesce(p.description, '')),
+                             websearch_to_tsquery('simple', :q)) DESC, p.id
+            LIMIT :limit
+            """)
+    List<Product> searchRankedFullText(@Param("q") String query,
+                                       @Param("brand") String brand,
+                                       @Param("category") String category,
+                                       @Param("limit") int limit);
 }
@@ -0,0 +1,59 @@
+package com.bob.productservice.repository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the indexes behind {@link ProductRepository#searchRanked}: a GIN index on the product's
+ * tsvector for tokenised matching and ranking, and pg_trgm GIN indexes on the lower-cased name and brand
+ * for typo tolerance (the name one also serves the {@code LOWER(p.name) LIKE '%...%'} filter of
+ * {@link ProductRepository#searchProductsAfter}).
+ * <p>
+ * Postgres maintains them on every insert, update and delete, so search stays current without any
+ * application-side bookkeeping and is the same on every replica. Hibernate's {@code ddl-auto} cannot
+ * declare expression indexes, hence the explicit DDL once the schema is in place.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+@Slf4j
+public class ProductSearchIndex {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile boolean trigramAvailable;
+
+    @PostConstruct
+    void createIndexes() {
+        try {
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS product_search_idx ON product USING gin ("
+                    + ProductRepository.SEARCH_DOCUMENT + ")");
+        } catch (DataAccessException e) {
+            // Search still works, just without the index
+            log.warn("Could not create the product full-text index: {}", e.getMostSpecificCause().getMessage());
+        }
+
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS product_name_trgm_idx ON product USING gin (lower(name) gin_trgm_ops)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS product_brand_trgm_idx ON product USING gin (lower(brand) gin_trgm_ops)");
+            trigramAvailable = true;
+        } catch (DataAccessException e) {
+            // Usually a database user without the right to install extensions; have a DBA run CREATE EXTENSION pg_trgm
+            log.warn("pg_trgm is not available, product search will not tolerate typos: {}",
+                    e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    /**
+     * Whether pg_trgm is installed, i.e. whether the fuzzy parts of the search can run.
+     */
+    public boolean isTrigramAvailable() {
+        return trigramAvailable;
+    }
+}
@@ -0,0 +1,35 @@
+package com.bob.productservice.repository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives every product an {@code updated_at}, which {@link ProductRepository#findChangedAfter} relies on.
+ * <p>
+ * Rows written before the column existed are stamped with the migration time, so the next incremental
+ * catalog sync sends them once, and the column is then made NOT NULL with a default. Hibernate's
+ * {@code ddl-auto=update} adds columns but never changes an existing one, hence the explicit DDL. Every
+ * statement is a no-op once it has run.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+@Slf4j
+public class ProductUpdatedAtBackfill {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    void backfill() {
+        int stamped = jdbcTemplate.update("UPDATE product SET updated_at = now() WHERE updated_at IS NULL");
+        if (stamped > 0) {
+            log.info("Backfilled updated_at for {} products", stamped);
+        }
+        jdbcTemplate.execute("ALTER TABLE product ALTER COLUMN updated_at SET DEFAULT now()");
+        jdbcTemplate.execute("ALTER TABLE product ALTER COLUMN updated_at SET NOT NULL");
+    }
+}
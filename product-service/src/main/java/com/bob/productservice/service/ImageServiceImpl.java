@@ -21,6 +21,7 @@ public class ImageServiceImpl implements ImageService {
     private final ImageRepository imageRepository;
     private final ImageMapper mapper;
     private final ProductService productService;
+    private final ProductCache productCache;
     private final MinioClient minioClient;
 
     @Value("${minio.bucket}")
@@ -64,6 +65,7 @@ public class ImageServiceImpl implements ImageService {
             throw new RuntimeException("Failed to delete object from MinIO", e);
         }
         imageRepository.delete(image);
+        productCache.invalidate(image.getProduct().getId());
     }
 
     @Override
@@ -85,6 +87,7 @@ public class ImageServiceImpl implements ImageService {
                 .build();
 
         Image savedImage = imageRepository.save(image);
+        productCache.invalidate(productId);
 
         //generate pre-signed PUT URL
         String uploadUrl = generatePresignedPutUrl(bucket, objectKey, contentType);
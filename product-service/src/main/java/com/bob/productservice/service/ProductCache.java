@@ -0,0 +1,130 @@
+package com.bob.productservice.service;
+
+import com.bob.productservice.config.KafkaConfig;
+import com.bob.productservice.model.Product;
+import com.bob.productservice.repository.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded read-through cache of products for the REST and gRPC lookups by ID.
+ * <p>
+ * Cached products are detached with their category and images loaded, and must be treated as read-only;
+ * paths that modify a product load a managed one from {@link ProductService#getProduct}. Concurrent misses
+ * for one ID share a single database load. Writes invalidate the entry here and, through the
+ * {@code product.updated}/{@code product.deleted} topics every replica reads in its own group, on the other
+ * replicas; the TTL bounds staleness for what the topics do not carry (image changes on another replica).
+ */
+@Component
+public class ProductCache {
+
+    private static final String PRODUCT_UPDATED_TOPIC = "product.updated";
+    private static final String PRODUCT_DELETED_TOPIC = "product.deleted";
+
+    private record Entry(Product product, long expiresAt) {
+    }
+
+    private final ProductRepository productRepository;
+    private final long ttlNanos;
+    private final Map<UUID, Entry> entries;
+    private final Map<UUID, CompletableFuture<Optional<Product>>> inFlightLoads = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer loads;
+
+    public ProductCache(ProductRepository productRepository,
+                        MeterRegistry meterRegistry,
+                        @Value("${product.cache.max-size:10000}") int maxSize,
+                        @Value("${product.cache.ttl:30s}") Duration ttl) {
+        this.productRepository = productRepository;
+        this.ttlNanos = ttl.toNanos();
+        // Access-ordered, so the least recently read product is evicted first
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<UUID, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > maxSize;
+            }
+        });
+
+        this.hits = Counter.builder("product.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("product.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.loads = Timer.builder("product.cache.load")
+                .description("Database loads on cache misses; concurrent misses for one product share a load")
+                .register(meterRegistry);
+        Gauge.builder("product.cache.size", entries, Map::size).register(meterRegistry);
+    }
+
+    public Optional<Product> find(UUID id) {
+        Entry cached = entries.get(id);
+        if (cached != null && cached.expiresAt() - System.nanoTime() > 0) {
+            hits.increment();
+            return Optional.of(cached.product());
+        }
+        misses.increment();
+
+        CompletableFuture<Optional<Product>> load = new CompletableFuture<>();
+        CompletableFuture<Optional<Product>> inFlight = inFlightLoads.putIfAbsent(id, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+
+        try {
+            Optional<Product> product = loads.record(() -> productRepository.findDetailedById(id));
+            // Not cached if invalidated meanwhile: the load may have read the row before the write
+            if (inFlightLoads.remove(id, load) && product.isPresent()) {
+                entries.put(id, new Entry(product.get(), System.nanoTime() + ttlNanos));
+            }
+            load.complete(product);
+            return product;
+        } catch (RuntimeException e) {
+            inFlightLoads.remove(id, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public void invalidate(UUID id) {
+        entries.remove(id);
+        inFlightLoads.remove(id);
+    }
+
+    // Writes on any replica (including this one, which already invalidated locally)
+    @KafkaListener(topics = {PRODUCT_UPDATED_TOPIC, PRODUCT_DELETED_TOPIC}, groupId = "product-cache-${random.uuid}",
+            containerFactory = KafkaConfig.BROADCAST_LISTENER_FACTORY, batch = "true")
+    public void onProductChanged(List<ConsumerRecord<String, byte[]>> records) {
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (record.key() == null) {
+                continue;
+            }
+            try {
+                invalidate(UUID.fromString(record.key()));
+            } catch (IllegalArgumentException e) {
+                // Not keyed by a product ID; nothing of ours to drop
+            }
+        }
+    }
+
+    private static Optional<Product> await(CompletableFuture<Optional<Product>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.bob.productservice.service;
+
+import com.bob.productservice.exception.InvalidCursorException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Opaque keyset cursor for product listings: the ID of the last product on the previous page.
+ * Listings are ordered by ID, so a page is "the next {@code size} products with an ID after the cursor".
+ */
+final class ProductCursor {
+
+    // Sorts before every other UUID in Postgres, which compares UUIDs as unsigned bytes
+    static final UUID START = new UUID(0, 0);
+
+    private ProductCursor() {
+    }
+
+    static String encode(UUID lastId) {
+        ByteBuffer bytes = ByteBuffer.allocate(16)
+                .putLong(lastId.getMostSignificantBits())
+                .putLong(lastId.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    }
+
+    static UUID decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return START;
+        }
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+            if (bytes.remaining() != 16) {
+                throw new InvalidCursorException("Invalid cursor");
+            }
+            return new UUID(bytes.getLong(), bytes.getLong());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.bob.productservice.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Streams the whole catalog as NDJSON (one product per line) straight from a JDBC cursor,
+ * so memory stays flat however many products there are.
+ */
+@Service
+@RequiredArgsConstructor
+public class ProductExportService {
+
+    // Rows per round trip; the Postgres driver only streams with a fetch size inside a transaction
+    private static final int FETCH_SIZE = 500;
+
+    private static final String EXPORT_QUERY = """
+            SELECT p.id, p.name, p.brand, p.price, p.inventory, p.description, p.active, c.name AS category
+            FROM product p
+            LEFT JOIN category c ON c.id = p.category_id
+            ORDER BY p.id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
+
+    public void exportNdjson(OutputStream out) throws IOException {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            // Lines end with '\n' from writeRow; Jackson's default ' ' root separator would start every later line with a space
+            json.setRootValueSeparator(null);
+            transaction.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(EXPORT_QUERY);
+                statement.setFetchSize(FETCH_SIZE);
+                return statement;
+            }, (RowCallbackHandler) row -> writeRow(json, row)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeRow(JsonGenerator json, ResultSet row) throws SQLException {
+        try {
+            json.writeStartObject();
+            json.writeStringField("id", row.getString("id"));
+            json.writeStringField("name", row.getString("name"));
+            json.writeStringField("brand", row.getString("brand"));
+            json.writeNumberField("price", row.getBigDecimal("price"));
+            json.writeNumberField("inventory", row.getInt("inventory"));
+            json.writeStringField("description", row.getString("description"));
+            json.writeBooleanField("active", row.getBoolean("active"));
+            json.writeStringField("category", row.getString("category"));
+            json.writeEndObject();
+            json.writeRaw('\n');
+        } catch (IOException e) {
+            // Client went away; abort the query instead of reading the rest of the table
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.bob.productservice.service;
 
+import com.bob.productservice.dto.ProductPageDTO;
 import com.bob.productservice.dto.ProductRequestDTO;
 import com.bob.productservice.dto.ProductResponseDTO;
 import com.bob.productservice.model.Product;
 
-import java.util.List;
 import java.util.UUID;
 
 public interface ProductService {
@@ -18,19 +18,11 @@ public interface ProductService {
 
     ProductResponseDTO updateProduct(ProductRequestDTO request, UUID productId);
 
-    List<ProductResponseDTO> getAllProducts();
+    ProductPageDTO getProducts(String cursor, int size);
 
-    List<ProductResponseDTO> getProductsByCategory(String category);
+    ProductPageDTO searchProducts(String brand, String name, String category, String cursor, int size);
 
-    List<ProductResponseDTO> getProductByBrand(String brand);
-
-    List<ProductResponseDTO> getProductsByCategoryAndBrand(String category, String brand);
-
-    List<ProductResponseDTO> getProductsByName(String name);
-
-    List<ProductResponseDTO> getProductsByBrandAndName(String brand, String name);
-
-    List<ProductResponseDTO> searchProducts(String brand, String name, String category);
+    ProductPageDTO searchProductsByText(String query, String brand, String category, int size);
 
     Long countProductsByBrandAndName(String brand, String name);
 }
@@ -1,5 +1,6 @@
 package com.bob.productservice.service;
 
+import com.bob.productservice.dto.ProductPageDTO;
 import com.bob.productservice.dto.ProductRequestDTO;
 import com.bob.productservice.dto.ProductResponseDTO;
 import com.bob.productservice.exception.ResourceNotFoundException;
@@ -9,7 +10,9 @@ import com.bob.productservice.model.Category;
 import com.bob.productservice.model.Product;
 import com.bob.productservice.repository.CategoryRepository;
 import com.bob.productservice.repository.ProductRepository;
+import com.bob.productservice.repository.ProductSearchIndex;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -22,6 +25,11 @@ public class ProductServiceImpl implements ProductService {
     private final CategoryRepository categoryRepository;
     private final ProductMapper mapper;
     private final KafkaProducer kafkaProducer;
+    private final ProductSearchIndex searchIndex;
+    private final ProductSuggestionIndex suggestionIndex;
+    private final ProductCache productCache;
+
+    private static final int MAX_PAGE_SIZE = 200;
 
     @Override
     public ProductResponseDTO addProduct(ProductRequestDTO productRequestDTO) {
@@ -30,9 +38,14 @@ public class ProductServiceImpl implements ProductService {
         Product product = mapper.toEntity(productRequestDTO);
         product.setCategory(category);
 
-        return mapper.toDto(productRepository.save(product));
+        Product savedProduct = productRepository.save(product);
+        suggestionIndex.put(savedProduct);
+        kafkaProducer.sendProductCreatedEvent(savedProduct);
+
+        return mapper.toDto(savedProduct);
     }
 
+    // Managed entity straight from the database, for callers that modify the product or attach to it
     @Override
     public Product getProduct(UUID id) {
         return productRepository.findById(id)
@@ -41,14 +54,16 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public ProductResponseDTO getProductById(UUID id) {
-        return mapper.toDto(getProduct(id));
-
+        return mapper.toDto(productCache.find(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Product not found")));
     }
 
     @Override
     public void deleteProductById(UUID id) {
         Product product = getProduct(id);
         productRepository.delete(product);
+        productCache.invalidate(id);
+        suggestionIndex.remove(id);
         kafkaProducer.sendProductDeletedEvent(product);
     }
 
@@ -64,6 +79,8 @@ public class ProductServiceImpl implements ProductService {
         product.setCategory(category);
 
         Product savedProduct = productRepository.save(product);
+        productCache.invalidate(productId);
+        suggestionIndex.put(savedProduct);
 
         kafkaProducer.sendProductUpdatedEvent(savedProduct);
 
@@ -71,38 +88,36 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
-    public List<ProductResponseDTO> getAllProducts() {
-        return mapper.toDtoList(productRepository.findAll());
-    }
-
-    @Override
-    public List<ProductResponseDTO> getProductsByCategory(String category) {
-        return mapper.toDtoList(productRepository.findByCategoryNameIgnoreCase(category));
-    }
-
-    @Override
-    public List<ProductResponseDTO> getProductByBrand(String brand) {
-        return mapper.toDtoList(productRepository.findByBrandIgnoreCase(brand));
-    }
-
-    @Override
-    public List<ProductResponseDTO> getProductsByCategoryAndBrand(String category, String brand) {
-        return mapper.toDtoList(productRepository.findByCategoryNameIgnoreCaseAndBrandIgnoreCase(category, brand));
-    }
-
-    @Override
-    public List<ProductResponseDTO> getProductsByName(String name) {
-        return mapper.toDtoList(productRepository.findByNameContainingIgnoreCase(name));
+    public ProductPageDTO getProducts(String cursor, int size) {
+        return searchProducts("", "", "", cursor, size);
     }
 
     @Override
-    public List<ProductResponseDTO> getProductsByBrandAndName(String brand, String name) {
-        return mapper.toDtoList(productRepository.findByBrandIgnoreCaseAndNameContainingIgnoreCase(brand, name));
+    public ProductPageDTO searchProducts(String brand, String name, String category, String cursor, int size) {
+        int pageSize = Math.clamp(size, 1, MAX_PAGE_SIZE);
+        // One extra row tells whether there is a next page
+        List<Product> products = productRepository.searchProductsAfter(brand, name, category,
+                ProductCursor.decode(cursor), Limit.of(pageSize + 1));
+
+        boolean hasNext = products.size() > pageSize;
+        List<Product> page = hasNext ? products.subList(0, pageSize) : products;
+        return ProductPageDTO.builder()
+                .items(mapper.toDtoList(page))
+                .nextCursor(hasNext ? ProductCursor.encode(page.get(pageSize - 1).getId()) : null)
+                .build();
     }
 
     @Override
-    public List<ProductResponseDTO> searchProducts(String brand, String name, String category) {
-        return mapper.toDtoList(productRepository.searchProducts(brand, name, category)); // custom Query or Specification
+    public ProductPageDTO searchProductsByText(String query, String brand, String category, int size) {
+        int limit = Math.clamp(size, 1, MAX_PAGE_SIZE);
+        List<Product> products = searchIndex.isTrigramAvailable()
+                ? productRepository.searchRanked(query, brand, category, limit)
+                : productRepository.searchRankedFullText(query, brand, category, limit);
+
+        // Ranked results are a single page: the best matches, no cursor
+        return ProductPageDTO.builder()
+                .items(mapper.toDtoList(products))
+                .build();
     }
 
     @Override
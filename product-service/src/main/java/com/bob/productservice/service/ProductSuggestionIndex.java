@@ -0,0 +1,266 @@
+package com.bob.productservice.service;
+
+import com.bob.productservice.config.KafkaConfig;
+import com.bob.productservice.dto.SuggestionDTO;
+import com.bob.productservice.model.Product;
+import com.bob.productservice.repository.ProductRepository;
+import com.google.protobuf.InvalidProtocolBufferException;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.Limit;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory prefix index of product names, brands and categories for typeahead.
+ * <p>
+ * Every phrase is stored under each of its word starts ("macbook pro" and "pro") in a sorted map, so the
+ * completions of a prefix are one contiguous key range. Phrases are weighted by the number of active
+ * products carrying them. Lookups never touch the database and take no lock.
+ * <p>
+ * Built from the database at startup, then kept current from this replica's own writes and from the
+ * {@code product.snapshot} topic, which every replica reads in its own group, so writes made on other
+ * replicas show up too.
+ */
+@Component
+// The build pages through findChangedAfter, which skips rows without updated_at
+@DependsOn("productUpdatedAtBackfill")
+@Slf4j
+public class ProductSuggestionIndex implements ConsumerSeekAware {
+
+    public static final int MAX_SUGGESTIONS = 20;
+
+    private static final int BUILD_PAGE_SIZE = 1000;
+    private static final UUID FIRST_ID = new UUID(0, 0);
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Prefix matches at the start of a phrase first, then the most common phrases, then the shortest
+    private static final Comparator<Candidate> BY_RANK = Comparator.comparing(Candidate::leading).reversed()
+            .thenComparing(Comparator.comparingInt(Candidate::weight).reversed())
+            .thenComparingInt(candidate -> candidate.phrase().text.length())
+            .thenComparing(candidate -> candidate.phrase().text);
+
+    private static final class Phrase {
+        final SuggestionDTO.Type type;
+        final String text;
+        final String normalised;
+        // Active products carrying the phrase; written under the index lock, read without it
+        volatile int weight;
+
+        Phrase(SuggestionDTO.Type type, String text, String normalised) {
+            this.type = type;
+            this.text = text;
+            this.normalised = normalised;
+        }
+    }
+
+    private record Candidate(Phrase phrase, int weight, boolean leading) {
+    }
+
+    // What the index holds for one product, so an update or delete can take it out again
+    private record Indexed(String name, String brand, String category, long updatedAtMillis) {
+    }
+
+    private final ProductRepository productRepository;
+    private final int scanLimit;
+
+    // Word-start suffix of a normalised phrase -> phrases having it
+    private final ConcurrentNavigableMap<String, Set<Phrase>> terms = new ConcurrentSkipListMap<>();
+    // Guarded by this
+    private final Map<String, Phrase> phrases = new HashMap<>();
+    private final Map<UUID, Indexed> products = new HashMap<>();
+
+    // Snapshot records from this time on are replayed, covering writes made while the index was being built
+    private volatile long builtFromMillis;
+
+    public ProductSuggestionIndex(ProductRepository productRepository,
+                                  @Value("${product.suggest.scan-limit:2000}") int scanLimit) {
+        this.productRepository = productRepository;
+        this.scanLimit = scanLimit;
+    }
+
+    @PostConstruct
+    void build() {
+        long started = System.currentTimeMillis();
+        UUID after = FIRST_ID;
+        int count = 0;
+        List<Product> page;
+        do {
+            page = productRepository.findChangedAfter(after, Instant.EPOCH, Limit.of(BUILD_PAGE_SIZE));
+            for (Product product : page) {
+                put(product);
+            }
+            if (!page.isEmpty()) {
+                after = page.getLast().getId();
+            }
+            count += page.size();
+        } while (page.size() == BUILD_PAGE_SIZE);
+
+        builtFromMillis = started;
+        log.info("Suggestion index built from {} products in {} ms", count, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Up to {@code limit} completions of what the user has typed so far, best first.
+     */
+    public List<SuggestionDTO> suggest(String prefix, int limit) {
+        String normalisedPrefix = normalise(prefix);
+        if (normalisedPrefix.isEmpty()) {
+            return List.of();
+        }
+        int k = Math.clamp(limit, 1, MAX_SUGGESTIONS);
+
+        // Worst candidate on top, so it is the one dropped when a better one comes along
+        PriorityQueue<Candidate> best = new PriorityQueue<>(BY_RANK.reversed());
+        Set<Phrase> seen = new HashSet<>();
+        int scanned = 0;
+        // A one-letter prefix can match a large part of the catalog; stop after scanLimit keys to bound latency
+        for (Set<Phrase> matches : terms.subMap(normalisedPrefix, normalisedPrefix + Character.MAX_VALUE).values()) {
+            for (Phrase phrase : matches) {
+                int weight = phrase.weight;
+                if (weight > 0 && seen.add(phrase)) {
+                    best.offer(new Candidate(phrase, weight, phrase.normalised.startsWith(normalisedPrefix)));
+                    if (best.size() > k) {
+                        best.poll();
+                    }
+                }
+            }
+            if (++scanned >= scanLimit) {
+                break;
+            }
+        }
+
+        List<Candidate> ranked = new ArrayList<>(best);
+        ranked.sort(BY_RANK);
+        return ranked.stream()
+                .map(candidate -> SuggestionDTO.builder()
+                        .text(candidate.phrase().text)
+                        .type(candidate.phrase().type)
+                        .products(candidate.weight())
+                        .build())
+                .toList();
+    }
+
+    public void put(Product product) {
+        long updatedAt = product.getUpdatedAt() != null ? product.getUpdatedAt().toEpochMilli() : 0;
+        String category = product.getCategory() != null ? product.getCategory().getName() : null;
+        index(product.getId(), product.isActive()
+                ? new Indexed(product.getName(), product.getBrand(), category, updatedAt)
+                : null);
+    }
+
+    public void remove(UUID productId) {
+        index(productId, null);
+    }
+
+    // Changes made on any replica (including this one, which is harmless)
+    @KafkaListener(topics = KafkaConfig.PRODUCT_SNAPSHOT_TOPIC, groupId = "product-suggestions-${random.uuid}",
+            containerFactory = KafkaConfig.BROADCAST_LISTENER_FACTORY)
+    public void onSnapshot(ConsumerRecord<String, byte[]> record) {
+        try {
+            UUID productId = UUID.fromString(record.key());
+            if (record.value() == null) {
+                // Tombstone: the product was deleted
+                remove(productId);
+                return;
+            }
+            com.bob.product.proto.Product product = com.bob.product.proto.Product.parseFrom(record.value());
+            index(productId, product.getActive()
+                    ? new Indexed(product.getName(), product.getBrand(), product.getCategoryName(),
+                            product.getUpdatedAtMillis())
+                    : null);
+        } catch (InvalidProtocolBufferException | IllegalArgumentException e) {
+            log.error("Skipping unreadable product snapshot at offset {}", record.offset(), e);
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        callback.seekToTimestamp(assignments.keySet(), builtFromMillis);
+    }
+
+    // Replaces what the index holds for the product; null takes it out
+    private synchronized void index(UUID productId, Indexed next) {
+        Indexed current = products.get(productId);
+        if (current != null && next != null && next.updatedAtMillis() < current.updatedAtMillis()) {
+            // Older than what we have, e.g. replayed after this replica's own write
+            return;
+        }
+        if (current != null) {
+            removePhrase(SuggestionDTO.Type.NAME, current.name());
+            removePhrase(SuggestionDTO.Type.BRAND, current.brand());
+            removePhrase(SuggestionDTO.Type.CATEGORY, current.category());
+            products.remove(productId);
+        }
+        if (next != null) {
+            addPhrase(SuggestionDTO.Type.NAME, next.name());
+            addPhrase(SuggestionDTO.Type.BRAND, next.brand());
+            addPhrase(SuggestionDTO.Type.CATEGORY, next.category());
+            products.put(productId, next);
+        }
+    }
+
+    private void addPhrase(SuggestionDTO.Type type, String text) {
+        String normalised = normalise(text);
+        if (normalised.isEmpty()) {
+            return;
+        }
+        Phrase phrase = phrases.get(type + ":" + normalised);
+        if (phrase == null) {
+            phrase = new Phrase(type, text.strip(), normalised);
+            phrases.put(type + ":" + normalised, phrase);
+            for (String key : keysOf(normalised)) {
+                terms.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(phrase);
+            }
+        }
+        phrase.weight++;
+    }
+
+    private void removePhrase(SuggestionDTO.Type type, String text) {
+        String normalised = normalise(text);
+        Phrase phrase = phrases.get(type + ":" + normalised);
+        if (phrase == null || --phrase.weight > 0) {
+            return;
+        }
+        phrases.remove(type + ":" + normalised);
+        for (String key : keysOf(normalised)) {
+            terms.computeIfPresent(key, (k, matches) -> {
+                matches.remove(phrase);
+                return matches.isEmpty() ? null : matches;
+            });
+        }
+    }
+
+    // "macbook pro 14" -> "macbook pro 14", "pro 14", "14"
+    private static List<String> keysOf(String normalised) {
+        List<String> keys = new ArrayList<>();
+        keys.add(normalised);
+        for (int i = normalised.indexOf(' '); i >= 0; i = normalised.indexOf(' ', i + 1)) {
+            keys.add(normalised.substring(i + 1));
+        }
+        return keys;
+    }
+
+    // Lower case, accents stripped, punctuation and runs of whitespace collapsed to single spaces
+    static String normalise(String text) {
+        if (text == null) {
+            return "";
+        }
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(folded.toLowerCase(Locale.ROOT)).replaceAll(" ").strip();
+    }
+}
@@ -0,0 +1,118 @@
+package com.bob.productservice.repository;
+
+import com.bob.productservice.model.Category;
+import com.bob.productservice.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(ProductSearchIndex.class)
+@Testcontainers(disabledWithoutDocker = true)
+class ProductRepositorySearchTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Category peripherals = categoryRepository.save(new Category("Peripherals"));
+        Category audio = categoryRepository.save(new Category("Audio"));
+        productRepository.save(new Product("Wireless Mouse", "Logitech", new BigDecimal("29.99"), 10,
+                "Compact mouse with a USB receiver", peripherals));
+        productRepository.save(new Product("Mechanical Keyboard", "Keychron", new BigDecimal("89.00"), 5,
+                "Hot-swappable switches", peripherals));
+        productRepository.save(new Product("Noise Cancelling Headphones", "Sony", new BigDecimal("249.00"), 3,
+                "Over-ear, wireless", audio));
+        productRepository.flush();
+    }
+
+    @Test
+    void fullTextMatchesNameBrandAndDescription() {
+        assertThat(names(productRepository.searchRankedFullText("mouse", "", "", 10)))
+                .containsExactly("Wireless Mouse");
+        assertThat(names(productRepository.searchRankedFullText("KEYCHRON", "", "", 10)))
+                .containsExactly("Mechanical Keyboard");
+        assertThat(names(productRepository.searchRankedFullText("wireless", "", "", 10)))
+                .containsExactlyInAnyOrder("Wireless Mouse", "Noise Cancelling Headphones");
+    }
+
+    @Test
+    void categoryNameIsNotPartOfTheDocument() {
+        assertThat(productRepository.searchRankedFullText("audio", "", "", 10)).isEmpty();
+    }
+
+    @Test
+    void fullTextAppliesBrandAndCategoryFilters() {
+        assertThat(names(productRepository.searchRankedFullText("wireless", "", "audio", 10)))
+                .containsExactly("Noise Cancelling Headphones");
+        assertThat(names(productRepository.searchRankedFullText("wireless", "LOGITECH", "", 10)))
+                .containsExactly("Wireless Mouse");
+    }
+
+    @Test
+    void rankedSearchToleratesTypos() {
+        assumeTrue(searchIndex.isTrigramAvailable());
+
+        assertThat(productRepository.searchRankedFullText("logitek", "", "", 10)).isEmpty();
+        assertThat(names(productRepository.searchRanked("logitek", "", "", 10)))
+                .containsExactly("Wireless Mouse");
+        assertThat(names(productRepository.searchRanked("keyboard", "", "peripherals", 10)))
+                .first().isEqualTo("Mechanical Keyboard");
+    }
+
+    @Test
+    void rankedSearchHonoursLimit() {
+        assertThat(productRepository.searchRankedFullText("wireless", "", "", 1)).hasSize(1);
+    }
+
+    @Test
+    void fullTextQueryUsesTheSearchIndex() throws NoSuchMethodException {
+        String sql = ProductRepository.class
+                .getMethod("searchRankedFullText", String.class, String.class, String.class, int.class)
+                .getAnnotation(Query.class).value()
+                .replace(":q", "'mouse'")
+                .replace(":brand", "''")
+                .replace(":category", "''")
+                .replace(":limit", "10");
+
+        // Three rows would always be scanned sequentially; make the planner show whether the index matches
+        jdbcTemplate.execute("SET LOCAL enable_seqscan = off");
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class));
+
+        assertThat(plan).contains("product_search_idx");
+    }
+
+    private static List<String> names(List<Product> products) {
+        return products.stream().map(Product::getName).toList();
+    }
+}
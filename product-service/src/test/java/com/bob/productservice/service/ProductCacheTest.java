@@ -0,0 +1,216 @@
+package com.bob.productservice.service;
+
+import com.bob.productservice.model.Product;
+import com.bob.productservice.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class ProductCacheTest {
+
+    private final ProductRepository productRepository = mock(ProductRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void missLoadsAndCachesTheProduct() {
+        Product product = product();
+        when(productRepository.findDetailedById(product.getId())).thenReturn(Optional.of(product));
+        ProductCache cache = cache(Duration.ofMinutes(1));
+
+        assertThat(cache.find(product.getId())).containsSame(product);
+        assertThat(cache.find(product.getId())).containsSame(product);
+
+        verify(productRepository, times(1)).findDetailedById(product.getId());
+        assertThat(requests("miss")).isEqualTo(1);
+        assertThat(requests("hit")).isEqualTo(1);
+        assertThat(meterRegistry.get("product.cache.size").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void unknownProductIsNotCached() {
+        UUID id = UUID.randomUUID();
+        when(productRepository.findDetailedById(id)).thenReturn(Optional.empty());
+        ProductCache cache = cache(Duration.ofMinutes(1));
+
+        assertThat(cache.find(id)).isEmpty();
+        assertThat(cache.find(id)).isEmpty();
+
+        verify(productRepository, times(2)).findDetailedById(id);
+    }
+
+    @Test
+    void expiredEntryIsReloaded() {
+        Product product = product();
+        when(productRepository.findDetailedById(product.getId())).thenReturn(Optional.of(product));
+        ProductCache cache = cache(Duration.ZERO);
+
+        cache.find(product.getId());
+        cache.find(product.getId());
+
+        verify(productRepository, times(2)).findDetailedById(product.getId());
+        assertThat(requests("hit")).isZero();
+    }
+
+    @Test
+    void leastRecentlyReadProductIsEvicted() {
+        Product first = product();
+        Product second = product();
+        Product third = product();
+        for (Product product : List.of(first, second, third)) {
+            when(productRepository.findDetailedById(product.getId())).thenReturn(Optional.of(product));
+        }
+        ProductCache cache = new ProductCache(productRepository, meterRegistry, 2, Duration.ofMinutes(1));
+
+        cache.find(first.getId());
+        cache.find(second.getId());
+        cache.find(first.getId());
+        cache.find(third.getId());
+        cache.find(first.getId());
+        cache.find(second.getId());
+
+        verify(productRepository, times(1)).findDetailedById(first.getId());
+        verify(productRepository, times(2)).findDetailedById(second.getId());
+    }
+
+    @Test
+    void invalidateDropsTheEntry() {
+        Product product = product();
+        when(productRepository.findDetailedById(product.getId())).thenReturn(Optional.of(product));
+        ProductCache cache = cache(Duration.ofMinutes(1));
+
+        cache.find(product.getId());
+        cache.invalidate(product.getId());
+        cache.find(product.getId());
+
+        verify(productRepository, times(2)).findDetailedById(product.getId());
+    }
+
+    @Test
+    @Timeout(10)
+    void concurrentMissesShareOneLoad() throws Exception {
+        Product product = product();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(productRepository.findDetailedById(product.getId())).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return Optional.of(product);
+        });
+        ProductCache cache = cache(Duration.ofMinutes(1));
+
+        Future<Optional<Product>> first = executor.submit(() -> cache.find(product.getId()));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<Optional<Product>> second = executor.submit(() -> cache.find(product.getId()));
+        // The second lookup has missed and is waiting on the first one's load
+        while (requests("miss") < 2) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertThat(first.get()).containsSame(product);
+        assertThat(second.get()).containsSame(product);
+        verify(productRepository, times(1)).findDetailedById(product.getId());
+    }
+
+    @Test
+    @Timeout(10)
+    void concurrentMissesShareAFailedLoad() throws Exception {
+        UUID id = UUID.randomUUID();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(productRepository.findDetailedById(id)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            throw new IllegalStateException("database down");
+        });
+        ProductCache cache = cache(Duration.ofMinutes(1));
+
+        Future<Optional<Product>> first = executor.submit(() -> cache.find(id));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<Optional<Product>> second = executor.submit(() -> cache.find(id));
+        while (requests("miss") < 2) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertThatThrownBy(first::get).hasRootCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(second::get).hasRootCauseInstanceOf(IllegalStateException.class);
+
+        // A failed load is not remembered
+        reset(productRepository);
+        Product product = product();
+        when(productRepository.findDetailedById(id)).thenReturn(Optional.of(product));
+        assertThat(cache.find(id)).containsSame(product);
+    }
+
+    @Test
+    void productInvalidatedDuringItsLoadIsNotCached() {
+        Product stale = product();
+        ProductCache cache = cache(Duration.ofMinutes(1));
+        when(productRepository.findDetailedById(stale.getId())).thenAnswer(invocation -> {
+            // A write lands after the row was read but before the load finished
+            cache.invalidate(stale.getId());
+            return Optional.of(stale);
+        }).thenReturn(Optional.of(stale));
+
+        assertThat(cache.find(stale.getId())).containsSame(stale);
+        cache.find(stale.getId());
+
+        verify(productRepository, times(2)).findDetailedById(stale.getId());
+        assertThat(requests("hit")).isZero();
+    }
+
+    @Test
+    void productEventsInvalidateTheirProduct() {
+        Product product = product();
+        when(productRepository.findDetailedById(product.getId())).thenReturn(Optional.of(product));
+        ProductCache cache = cache(Duration.ofMinutes(1));
+        cache.find(product.getId());
+
+        cache.onProductChanged(List.of(
+                new ConsumerRecord<>("product.updated", 0, 0, null, new byte[0]),
+                new ConsumerRecord<>("product.updated", 0, 1, "not-a-uuid", new byte[0]),
+                new ConsumerRecord<>("product.deleted", 0, 0, product.getId().toString(), new byte[0])));
+        cache.find(product.getId());
+
+        verify(productRepository, times(2)).findDetailedById(product.getId());
+    }
+
+    private ProductCache cache(Duration ttl) {
+        return new ProductCache(productRepository, meterRegistry, 100, ttl);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("product.cache.requests").tag("result", result).counter().count();
+    }
+
+    private static Product product() {
+        return Product.builder()
+                .id(UUID.randomUUID())
+                .name("Wireless Mouse")
+                .brand("Logitech")
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.bob.productservice.service;
+
+import com.bob.productservice.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProductCursorTest {
+
+    @Test
+    void roundTrips() {
+        UUID id = UUID.fromString("3f2504e0-4f89-11d3-9a0c-0305e82c3301");
+
+        String cursor = ProductCursor.encode(id);
+
+        assertThat(cursor).hasSize(22).matches("[A-Za-z0-9_-]+");
+        assertThat(ProductCursor.decode(cursor)).isEqualTo(id);
+    }
+
+    @Test
+    void roundTripsExtremeIds() {
+        UUID max = new UUID(-1L, -1L);
+
+        assertThat(ProductCursor.decode(ProductCursor.encode(ProductCursor.START))).isEqualTo(ProductCursor.START);
+        assertThat(ProductCursor.decode(ProductCursor.encode(max))).isEqualTo(max);
+    }
+
+    @Test
+    void missingCursorStartsAtTheFirstPage() {
+        assertThat(ProductCursor.decode(null)).isEqualTo(ProductCursor.START);
+        assertThat(ProductCursor.decode("")).isEqualTo(ProductCursor.START);
+    }
+
+    @Test
+    void rejectsCursorsThatAreNotBase64() {
+        assertThatThrownBy(() -> ProductCursor.decode("not a cursor!"))
+                .isInstanceOf(InvalidCursorException.class);
+        // Standard alphabet characters are not part of the URL-safe one
+        assertThatThrownBy(() -> ProductCursor.decode("+/+/+/+/+/+/+/+/+/+/+/"))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+
+    @Test
+    void rejectsCursorsOfTheWrongLength() {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+        assertThatThrownBy(() -> ProductCursor.decode(encoder.encodeToString(new byte[15])))
+                .isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> ProductCursor.decode(encoder.encodeToString(new byte[17])))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+}